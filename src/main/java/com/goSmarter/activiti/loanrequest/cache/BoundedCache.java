@@ -0,0 +1,186 @@
+package com.goSmarter.activiti.loanrequest.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * A size bounded LRU cache whose entries also expire after a time to live.
+ * Hit, miss, eviction and expiration counters are exported over JMX so the
+ * cache can be sized from production numbers.
+ * 
+ * Read-through callers take a {@link #generation()} before loading a value
+ * and store it with {@link #putIfUnchanged(Object, Object, long)}; a value
+ * loaded while an invalidation was in flight is then dropped instead of
+ * being cached stale.
+ */
+@ManagedResource
+public class BoundedCache<K, V> {
+
+	private final int maxSize;
+
+	private final long ttlMillis;
+
+	private final Map<K, Entry<V>> entries;
+
+	private long generation;
+
+	private long hits;
+
+	private long misses;
+
+	private long evictions;
+
+	private long expirations;
+
+	public BoundedCache(int maxSize, long ttlSeconds) {
+		this.maxSize = maxSize;
+		this.ttlMillis = ttlSeconds * 1000;
+		this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() > BoundedCache.this.maxSize) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public synchronized V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.expiresAt <= System.currentTimeMillis()) {
+			entries.remove(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		entries.put(key, new Entry<V>(value, System.currentTimeMillis() + ttlMillis));
+	}
+
+	/**
+	 * Stores the value only when nothing was invalidated since
+	 * <code>generation</code> was taken.
+	 */
+	public synchronized void putIfUnchanged(K key, V value, long generation) {
+		if (generation == this.generation) {
+			put(key, value);
+		}
+	}
+
+	public synchronized long generation() {
+		return generation;
+	}
+
+	public synchronized void remove(K key) {
+		generation++;
+		entries.remove(key);
+	}
+
+	/**
+	 * Removes the entry now, and when a transaction is active once more after
+	 * it completes, so readers that load the old row before the commit cannot
+	 * leave it in the cache.
+	 */
+	public void invalidate(final K key) {
+		remove(key);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				public void afterCompletion(int status) {
+					remove(key);
+				}
+			});
+		}
+	}
+
+	@ManagedOperation
+	public synchronized void clear() {
+		generation++;
+		entries.clear();
+	}
+
+	/**
+	 * Drops expired entries; {@link #get(Object)} already ignores them, this
+	 * only gives their memory back early.
+	 */
+	@ManagedOperation
+	public synchronized void purgeExpired() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Entry<V>> it = entries.values().iterator(); it.hasNext();) {
+			if (it.next().expiresAt <= now) {
+				it.remove();
+				expirations++;
+			}
+		}
+	}
+
+	@ManagedAttribute
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	@ManagedAttribute
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@ManagedAttribute
+	public long getTtlSeconds() {
+		return ttlMillis / 1000;
+	}
+
+	@ManagedAttribute
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	@ManagedAttribute
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@ManagedAttribute
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@ManagedAttribute
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	@ManagedAttribute
+	public synchronized double getHitRatio() {
+		long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	private static class Entry<V> {
+
+		final V value;
+
+		final long expiresAt;
+
+		Entry(V value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
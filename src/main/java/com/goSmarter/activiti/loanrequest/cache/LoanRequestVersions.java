@@ -0,0 +1,124 @@
+package com.goSmarter.activiti.loanrequest.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Change counters for conditional GETs: one for the LOANREQUEST table and a
+ * fixed number of striped ones for single loans. Loans sharing a stripe
+ * share a version, which costs an occasional needless 200. ETags carry the
+ * time this instance started, so a restart cannot make an old ETag match
+ * again.
+ * 
+ * Like {@link BoundedCache} this only sees changes made through this
+ * instance. With several nodes, or approvals run by another node's job
+ * executor, a node can answer 304 for a loan changed elsewhere. Versions
+ * therefore also roll over every <code>ttlSeconds</code>, the time to live
+ * of the loan cache, so such a stale 304 lasts no longer than a stale cache
+ * entry would.
+ */
+@Component
+public class LoanRequestVersions {
+
+	private static final int stripes = 4096;
+
+	@Value("${loanrequest.cache.ttlSeconds:60}")
+	long ttlSeconds = 60;
+
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+	private final AtomicLongArray loanVersions = new AtomicLongArray(stripes);
+
+	private final AtomicLongArray loanChanges = new AtomicLongArray(stripes);
+
+	private final AtomicLong tableVersion = new AtomicLong();
+
+	private volatile long tableChange = System.currentTimeMillis();
+
+	public LoanRequestVersions() {
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < stripes; i++) {
+			loanChanges.set(i, now);
+		}
+	}
+
+	/**
+	 * Bumps the loan's and the table's version now, and when a transaction is
+	 * active once more after it completes, so a reader that loaded the old row
+	 * before the commit cannot keep it under the new version.
+	 */
+	public void changed(Integer id) {
+		bump(id);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			final Integer changedId = id;
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				public void afterCompletion(int status) {
+					bump(changedId);
+				}
+			});
+		}
+	}
+
+	public Version loan(Integer id) {
+		int stripe = stripe(id);
+		long window = window();
+		return new Version("\"" + epoch + "-" + stripe + "-" + loanVersions.get(stripe) + "-" + window + "\"",
+				Math.max(loanChanges.get(stripe), window * windowMillis()));
+	}
+
+	public Version table() {
+		long window = window();
+		return new Version("\"" + epoch + "-t-" + tableVersion.get() + "-" + window + "\"",
+				Math.max(tableChange, window * windowMillis()));
+	}
+
+	/** Counts the ttlSeconds periods; a new one invalidates every ETag. */
+	private long window() {
+		return System.currentTimeMillis() / windowMillis();
+	}
+
+	private long windowMillis() {
+		return Math.max(ttlSeconds, 1) * 1000;
+	}
+
+	private void bump(Integer id) {
+		long now = System.currentTimeMillis();
+		if (id != null) {
+			int stripe = stripe(id);
+			loanVersions.incrementAndGet(stripe);
+			loanChanges.set(stripe, now);
+		}
+		tableVersion.incrementAndGet();
+		tableChange = now;
+	}
+
+	private static int stripe(Integer id) {
+		return id == null ? 0 : (id.hashCode() & 0x7fffffff) % stripes;
+	}
+
+	/** An ETag and the time of the change it stands for. */
+	public static class Version {
+
+		private final String etag;
+
+		private final long lastModified;
+
+		Version(String etag, long lastModified) {
+			this.etag = etag;
+			this.lastModified = lastModified;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+	}
+}
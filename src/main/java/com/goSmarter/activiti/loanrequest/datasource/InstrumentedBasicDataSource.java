@@ -0,0 +1,119 @@
+package com.goSmarter.activiti.loanrequest.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.beans.factory.BeanNameAware;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.goSmarter.activiti.loanrequest.metrics.TimingMetrics;
+
+/**
+ * A commons-dbcp pool that measures how long callers wait for a connection
+ * and counts the waits that ran into <code>maxWait</code>. Together with the
+ * active and idle counts this shows whether connection starvation is what
+ * limits throughput: a busy pool with long waits and timeouts needs a larger
+ * <code>maxActive</code>, or shorter transactions.
+ * 
+ * With a {@link TimingMetrics} set, the waits also appear there as
+ * <code>connection.&lt;bean name&gt;</code>.
+ */
+@ManagedResource
+public class InstrumentedBasicDataSource extends BasicDataSource implements BeanNameAware {
+
+	private String name = "dataSource";
+
+	private TimingMetrics timingMetrics;
+
+	private final AtomicLong connectionRequests = new AtomicLong();
+
+	private final AtomicLong connectionTimeouts = new AtomicLong();
+
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Connection connection = super.getConnection();
+			failed = false;
+			return connection;
+		} catch (SQLException e) {
+			if (e.getCause() instanceof NoSuchElementException) {
+				connectionTimeouts.incrementAndGet();
+			}
+			throw e;
+		} finally {
+			long wait = System.nanoTime() - start;
+			connectionRequests.incrementAndGet();
+			totalWaitNanos.addAndGet(wait);
+			long max = maxWaitNanos.get();
+			while (wait > max && !maxWaitNanos.compareAndSet(max, wait)) {
+				max = maxWaitNanos.get();
+			}
+			if (timingMetrics != null) {
+				timingMetrics.record("connection." + name, wait, failed);
+			}
+		}
+	}
+
+	@ManagedAttribute
+	public int getNumActive() {
+		return super.getNumActive();
+	}
+
+	@ManagedAttribute
+	public int getNumIdle() {
+		return super.getNumIdle();
+	}
+
+	@ManagedAttribute
+	public synchronized int getMaxActive() {
+		return super.getMaxActive();
+	}
+
+	@ManagedAttribute
+	public long getConnectionRequests() {
+		return connectionRequests.get();
+	}
+
+	@ManagedAttribute
+	public long getConnectionTimeouts() {
+		return connectionTimeouts.get();
+	}
+
+	@ManagedAttribute
+	public long getAverageWaitMicros() {
+		long requests = connectionRequests.get();
+		return requests == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWaitNanos.get() / requests);
+	}
+
+	@ManagedAttribute
+	public long getMaxWaitMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(maxWaitNanos.get());
+	}
+
+	@ManagedOperation
+	public void resetStatistics() {
+		connectionRequests.set(0);
+		connectionTimeouts.set(0);
+		totalWaitNanos.set(0);
+		maxWaitNanos.set(0);
+	}
+
+	public void setBeanName(String name) {
+		this.name = name;
+	}
+
+	public void setTimingMetrics(TimingMetrics timingMetrics) {
+		this.timingMetrics = timingMetrics;
+	}
+}
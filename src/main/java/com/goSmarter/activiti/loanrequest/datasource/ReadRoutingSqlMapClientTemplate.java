@@ -0,0 +1,101 @@
+package com.goSmarter.activiti.loanrequest.datasource;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+
+import com.goSmarter.activiti.loanrequest.metrics.TimedSqlMapClientTemplate;
+import com.ibatis.sqlmap.client.event.RowHandler;
+
+/**
+ * A timed template that marks its queries as reads for a
+ * {@link ReplicaRoutingDataSource}, and its inserts, updates and deletes as
+ * writes of the current user. A callback passed to
+ * {@link #execute(SqlMapClientCallback)} outside a query may write, as the
+ * import batch does, so it counts as a write too.
+ */
+public class ReadRoutingSqlMapClientTemplate extends TimedSqlMapClientTemplate {
+
+	private ReplicaRoutingDataSource routingDataSource;
+
+	public Object queryForObject(String statementName, Object parameterObject) {
+		routingDataSource.beginRead();
+		try {
+			return super.queryForObject(statementName, parameterObject);
+		} finally {
+			routingDataSource.endRead();
+		}
+	}
+
+	public Object queryForObject(String statementName, Object parameterObject, Object resultObject) {
+		routingDataSource.beginRead();
+		try {
+			return super.queryForObject(statementName, parameterObject, resultObject);
+		} finally {
+			routingDataSource.endRead();
+		}
+	}
+
+	public List queryForList(String statementName, Object parameterObject) {
+		routingDataSource.beginRead();
+		try {
+			return super.queryForList(statementName, parameterObject);
+		} finally {
+			routingDataSource.endRead();
+		}
+	}
+
+	public List queryForList(String statementName, Object parameterObject, int skipResults, int maxResults) {
+		routingDataSource.beginRead();
+		try {
+			return super.queryForList(statementName, parameterObject, skipResults, maxResults);
+		} finally {
+			routingDataSource.endRead();
+		}
+	}
+
+	public void queryWithRowHandler(String statementName, Object parameterObject, RowHandler rowHandler) {
+		routingDataSource.beginRead();
+		try {
+			super.queryWithRowHandler(statementName, parameterObject, rowHandler);
+		} finally {
+			routingDataSource.endRead();
+		}
+	}
+
+	public Map queryForMap(String statementName, Object parameterObject, String keyProperty) {
+		routingDataSource.beginRead();
+		try {
+			return super.queryForMap(statementName, parameterObject, keyProperty);
+		} finally {
+			routingDataSource.endRead();
+		}
+	}
+
+	public Object insert(String statementName, Object parameterObject) {
+		routingDataSource.wrote();
+		return super.insert(statementName, parameterObject);
+	}
+
+	public int update(String statementName, Object parameterObject) {
+		routingDataSource.wrote();
+		return super.update(statementName, parameterObject);
+	}
+
+	public int delete(String statementName, Object parameterObject) {
+		routingDataSource.wrote();
+		return super.delete(statementName, parameterObject);
+	}
+
+	public Object execute(SqlMapClientCallback action) {
+		if (!routingDataSource.isRead()) {
+			routingDataSource.wrote();
+		}
+		return super.execute(action);
+	}
+
+	public void setRoutingDataSource(ReplicaRoutingDataSource routingDataSource) {
+		this.routingDataSource = routingDataSource;
+	}
+}
@@ -0,0 +1,311 @@
+package com.goSmarter.activiti.loanrequest.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends connections for reads to a replica and everything else to the
+ * primary. A connection counts as a read between {@link #beginRead()} and
+ * {@link #endRead()}, see {@link ReadRoutingSqlMapClientTemplate}; it still
+ * goes to the primary
+ * <ul>
+ * <li>inside a read-write transaction,</li>
+ * <li>for the user who wrote, see {@link #wrote()}, within
+ * <code>stalenessWindowMillis</code>, so they read their own writes,</li>
+ * <li>when no replica is up.</li>
+ * </ul>
+ * Replicas are picked round robin or, for <code>least-loaded</code>, by the
+ * fewest active pool connections. A replica that fails to hand out a
+ * connection, or fails the periodic validation query, is taken out until it
+ * passes the check again.
+ */
+@ManagedResource
+public class ReplicaRoutingDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+
+	public static final String ROUND_ROBIN = "round-robin";
+
+	public static final String LEAST_LOADED = "least-loaded";
+
+	private static Log logger = LogFactory.getLog(ReplicaRoutingDataSource.class);
+
+	private final ThreadLocal<Integer> reads = new ThreadLocal<Integer>();
+
+	private final Map<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
+
+	private final AtomicInteger next = new AtomicInteger();
+
+	private final AtomicLong replicaConnections = new AtomicLong();
+
+	private final AtomicLong primaryConnections = new AtomicLong();
+
+	private final AtomicLong failovers = new AtomicLong();
+
+	private DataSource primary;
+
+	private List<Replica> replicas = new ArrayList<Replica>();
+
+	private String selection = ROUND_ROBIN;
+
+	private long stalenessWindowMillis = 5000;
+
+	private long healthCheckIntervalMillis = 5000;
+
+	private String validationQuery = "select 1";
+
+	private ScheduledExecutorService healthCheck;
+
+	public Connection getConnection() throws SQLException {
+		Replica replica = isRead() && !TransactionSynchronizationManager.isActualTransactionActive()
+				&& !recentlyWrote() ? choose() : null;
+		if (replica != null) {
+			try {
+				Connection connection = replica.dataSource.getConnection();
+				replicaConnections.incrementAndGet();
+				return connection;
+			} catch (SQLException e) {
+				failovers.incrementAndGet();
+				replica.down(e);
+			}
+		}
+		primaryConnections.incrementAndGet();
+		return primary.getConnection();
+	}
+
+	/** Connections for other credentials always come from the primary. */
+	public Connection getConnection(String username, String password) throws SQLException {
+		primaryConnections.incrementAndGet();
+		return primary.getConnection(username, password);
+	}
+
+	public void beginRead() {
+		Integer depth = reads.get();
+		reads.set(depth == null ? 1 : depth + 1);
+	}
+
+	public void endRead() {
+		Integer depth = reads.get();
+		if (depth == null || depth <= 1) {
+			reads.remove();
+		} else {
+			reads.set(depth - 1);
+		}
+	}
+
+	/** Keeps the current user's reads on the primary for the staleness window. */
+	public void wrote() {
+		long now = System.currentTimeMillis();
+		lastWrites.put(writer(), now);
+		if (lastWrites.size() > 10000) {
+			for (Iterator<Long> it = lastWrites.values().iterator(); it.hasNext();) {
+				if (it.next() < now - stalenessWindowMillis) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/** Whether the current thread is between {@link #beginRead()} and {@link #endRead()}. */
+	public boolean isRead() {
+		return reads.get() != null;
+	}
+
+	private boolean recentlyWrote() {
+		Long lastWrite = lastWrites.get(writer());
+		return lastWrite != null && lastWrite >= System.currentTimeMillis() - stalenessWindowMillis;
+	}
+
+	private static String writer() {
+		Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+		return authentication != null ? "user:" + authentication.getName()
+				: "thread:" + Thread.currentThread().getId();
+	}
+
+	private Replica choose() {
+		List<Replica> up = new ArrayList<Replica>(replicas.size());
+		for (Replica replica : replicas) {
+			if (replica.up) {
+				up.add(replica);
+			}
+		}
+		if (up.isEmpty()) {
+			return null;
+		}
+		if (!LEAST_LOADED.equals(selection)) {
+			return up.get((next.getAndIncrement() & 0x7fffffff) % up.size());
+		}
+		Replica least = null;
+		for (Replica replica : up) {
+			if (least == null || replica.load() < least.load()) {
+				least = replica;
+			}
+		}
+		return least;
+	}
+
+	private void checkReplicas() {
+		for (Replica replica : replicas) {
+			try {
+				Connection connection = replica.dataSource.getConnection();
+				try {
+					Statement statement = connection.createStatement();
+					try {
+						statement.execute(validationQuery);
+					} finally {
+						statement.close();
+					}
+				} finally {
+					connection.close();
+				}
+				replica.up();
+			} catch (SQLException e) {
+				replica.down(e);
+			} catch (RuntimeException e) {
+				logger.warn("replica health check failed", e);
+			}
+		}
+	}
+
+	public void afterPropertiesSet() {
+		if (primary == null) {
+			throw new IllegalArgumentException("primary is required");
+		}
+		if (!replicas.isEmpty() && healthCheckIntervalMillis > 0) {
+			healthCheck = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "replica-health-check");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			healthCheck.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					checkReplicas();
+				}
+			}, healthCheckIntervalMillis, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	public void destroy() {
+		if (healthCheck != null) {
+			healthCheck.shutdownNow();
+		}
+	}
+
+	@ManagedAttribute
+	public long getReplicaConnections() {
+		return replicaConnections.get();
+	}
+
+	@ManagedAttribute
+	public long getPrimaryConnections() {
+		return primaryConnections.get();
+	}
+
+	@ManagedAttribute
+	public long getFailovers() {
+		return failovers.get();
+	}
+
+	@ManagedAttribute
+	public int getReplicasUp() {
+		int up = 0;
+		for (Replica replica : replicas) {
+			if (replica.up) {
+				up++;
+			}
+		}
+		return up;
+	}
+
+	@ManagedAttribute
+	public long getStalenessWindowMillis() {
+		return stalenessWindowMillis;
+	}
+
+	@ManagedAttribute
+	public void setStalenessWindowMillis(long stalenessWindowMillis) {
+		this.stalenessWindowMillis = stalenessWindowMillis;
+	}
+
+	public void setPrimary(DataSource primary) {
+		this.primary = primary;
+	}
+
+	public void setReplicas(List<DataSource> replicas) {
+		this.replicas = new ArrayList<Replica>(replicas.size());
+		for (int i = 0; i < replicas.size(); i++) {
+			this.replicas.add(new Replica("replica-" + i, replicas.get(i)));
+		}
+	}
+
+	/** {@link #ROUND_ROBIN} (the default) or {@link #LEAST_LOADED}. */
+	public void setSelection(String selection) {
+		this.selection = selection;
+	}
+
+	public void setHealthCheckIntervalMillis(long healthCheckIntervalMillis) {
+		this.healthCheckIntervalMillis = healthCheckIntervalMillis;
+	}
+
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	private static class Replica {
+
+		final String name;
+
+		final DataSource dataSource;
+
+		volatile boolean up = true;
+
+		Replica(String name, DataSource dataSource) {
+			this.name = name;
+			this.dataSource = dataSource;
+		}
+
+		int load() {
+			return dataSource instanceof BasicDataSource ? ((BasicDataSource) dataSource).getNumActive() : 0;
+		}
+
+		void up() {
+			if (!up) {
+				logger.info(name + " is back up");
+				up = true;
+			}
+		}
+
+		void down(Exception e) {
+			if (up) {
+				logger.warn(name + " is down, reading from the primary: " + e.getMessage());
+				up = false;
+			}
+		}
+	}
+}
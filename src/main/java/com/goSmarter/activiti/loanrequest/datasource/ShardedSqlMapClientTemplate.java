@@ -0,0 +1,526 @@
+package com.goSmarter.activiti.loanrequest.datasource;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.ibatis.common.util.PaginatedList;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+import com.ibatis.sqlmap.client.event.RowHandler;
+
+/**
+ * Spreads LOANREQUEST over several databases, one template per shard, by a
+ * hash of the loan id. Callers keep using the <code>GoSmarter</code>
+ * statements; the parameter decides where a statement runs:
+ * <ul>
+ * <li>a loan id, a {@link LoanRequest} or a map with an <code>id</code>
+ * runs on the loan's shard;</li>
+ * <li>a list of loan ids, or a map with an <code>ids</code> list, is split
+ * by shard;</li>
+ * <li>anything else runs on every shard in parallel. Lists are merged in id
+ * order, or by the properties configured in <code>orderings</code> for
+ * statements sorted otherwise; a <code>firstResult</code>/<code>maxResults</code> page is fetched
+ * as the first <code>firstResult + maxResults</code> rows of every shard and
+ * cut after merging; numbers, like counts, are added up.</li>
+ * </ul>
+ * Rows passed to a {@link RowHandler} come shard by shard. Batches run inside
+ * {@link #execute(SqlMapClientCallback)} are split by shard when executed.
+ *
+ * The shard is the hash modulo the number of shards, so adding or removing a
+ * shard moves most loans: their rows have to be migrated to their new
+ * shards before the new list of shards goes live.
+ */
+public class ShardedSqlMapClientTemplate extends SqlMapClientTemplate implements DisposableBean {
+
+	private static final Comparator<Object> byId = new Comparator<Object>() {
+		public int compare(Object left, Object right) {
+			return ((LoanRequest) left).getId().compareTo(((LoanRequest) right).getId());
+		}
+	};
+
+
+	private List<SqlMapClientTemplate> shards;
+
+	private Map<String, String[]> orderings = new HashMap<String, String[]>();
+
+	private ExecutorService fanOut;
+
+	public void afterPropertiesSet() {
+		if (shards == null || shards.isEmpty()) {
+			throw new IllegalArgumentException("at least one shard is required");
+		}
+		if (getSqlMapClient() == null) {
+			setSqlMapClient(shards.get(0).getSqlMapClient());
+		}
+		super.afterPropertiesSet();
+		fanOut = Executors.newFixedThreadPool(shards.size(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "shard-fan-out-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	public void destroy() {
+		fanOut.shutdownNow();
+	}
+
+	/** The shard a loan lives on, for the current number of shards. */
+	public int shard(Integer id) {
+		int hash = id.hashCode() * 0x9E3779B9;
+		return ((hash ^ (hash >>> 16)) & 0x7fffffff) % shards.size();
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	public Object queryForObject(final String statementName, final Object parameterObject) {
+		Integer id = loanId(parameterObject);
+		if (id != null) {
+			return shards.get(shard(id)).queryForObject(statementName, parameterObject);
+		}
+		return combine(onAllShards(new ShardCall() {
+			public Object call(SqlMapClientTemplate shard) {
+				return shard.queryForObject(statementName, parameterObject);
+			}
+		}));
+	}
+
+	public Object queryForObject(final String statementName, final Object parameterObject, final Object resultObject) {
+		Integer id = loanId(parameterObject);
+		if (id == null) {
+			throw new UnsupportedOperationException(statementName + " needs a loan id to run sharded");
+		}
+		return shards.get(shard(id)).queryForObject(statementName, parameterObject, resultObject);
+	}
+
+	@SuppressWarnings("unchecked")
+	public List queryForList(final String statementName, final Object parameterObject) {
+		Integer id = loanId(parameterObject);
+		if (id != null) {
+			return shards.get(shard(id)).queryForList(statementName, parameterObject);
+		}
+		Map<Integer, Object> split = splitByShard(parameterObject);
+		if (split != null) {
+			List merged = new ArrayList();
+			for (Map.Entry<Integer, Object> entry : split.entrySet()) {
+				merged.addAll(shards.get(entry.getKey()).queryForList(statementName, entry.getValue()));
+			}
+			sort(statementName, merged);
+			return merged;
+		}
+		final Object shardParameter = shardPage(parameterObject);
+		List merged = new ArrayList();
+		for (Object rows : onAllShards(new ShardCall() {
+			public Object call(SqlMapClientTemplate shard) {
+				return shard.queryForList(statementName, shardParameter);
+			}
+		})) {
+			merged.addAll((List) rows);
+		}
+		sort(statementName, merged);
+		return page(merged, parameterObject);
+	}
+
+	public List queryForList(String statementName, Object parameterObject, int skipResults, int maxResults) {
+		List merged = queryForList(statementName, parameterObject);
+		int from = Math.min(skipResults, merged.size());
+		return new ArrayList<Object>(merged.subList(from, Math.min(from + maxResults, merged.size())));
+	}
+
+	public void queryWithRowHandler(String statementName, Object parameterObject, RowHandler rowHandler) {
+		Integer id = loanId(parameterObject);
+		if (id != null) {
+			shards.get(shard(id)).queryWithRowHandler(statementName, parameterObject, rowHandler);
+			return;
+		}
+		for (SqlMapClientTemplate shard : shards) {
+			shard.queryWithRowHandler(statementName, parameterObject, rowHandler);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public Map queryForMap(final String statementName, final Object parameterObject, final String keyProperty) {
+		Map merged = new LinkedHashMap();
+		for (Object map : onAllShards(new ShardCall() {
+			public Object call(SqlMapClientTemplate shard) {
+				return shard.queryForMap(statementName, parameterObject, keyProperty);
+			}
+		})) {
+			merged.putAll((Map) map);
+		}
+		return merged;
+	}
+
+	@SuppressWarnings("unchecked")
+	public Map queryForMap(final String statementName, final Object parameterObject, final String keyProperty,
+			final String valueProperty) {
+		Map merged = new LinkedHashMap();
+		for (Object map : onAllShards(new ShardCall() {
+			public Object call(SqlMapClientTemplate shard) {
+				return shard.queryForMap(statementName, parameterObject, keyProperty, valueProperty);
+			}
+		})) {
+			merged.putAll((Map) map);
+		}
+		return merged;
+	}
+
+	public PaginatedList queryForPaginatedList(String statementName, Object parameterObject, int pageSize) {
+		throw new UnsupportedOperationException("paginated lists are not supported across shards");
+	}
+
+	public Object insert(String statementName, Object parameterObject) {
+		Integer id = loanId(parameterObject);
+		if (id == null) {
+			throw new UnsupportedOperationException(statementName + " needs a loan id to run sharded");
+		}
+		return shards.get(shard(id)).insert(statementName, parameterObject);
+	}
+
+	public int update(final String statementName, final Object parameterObject) {
+		Integer id = loanId(parameterObject);
+		if (id != null) {
+			return shards.get(shard(id)).update(statementName, parameterObject);
+		}
+		Map<Integer, Object> split = splitByShard(parameterObject);
+		if (split != null) {
+			int rows = 0;
+			for (Map.Entry<Integer, Object> entry : split.entrySet()) {
+				rows += shards.get(entry.getKey()).update(statementName, entry.getValue());
+			}
+			return rows;
+		}
+		return ((Number) combine(onAllShards(new ShardCall() {
+			public Object call(SqlMapClientTemplate shard) {
+				return shard.update(statementName, parameterObject);
+			}
+		}))).intValue();
+	}
+
+	public int delete(final String statementName, final Object parameterObject) {
+		Integer id = loanId(parameterObject);
+		if (id != null) {
+			return shards.get(shard(id)).delete(statementName, parameterObject);
+		}
+		return ((Number) combine(onAllShards(new ShardCall() {
+			public Object call(SqlMapClientTemplate shard) {
+				return shard.delete(statementName, parameterObject);
+			}
+		}))).intValue();
+	}
+
+	/**
+	 * Runs the callback against an executor that routes each statement like
+	 * this template does. Statements issued between <code>startBatch</code>
+	 * and <code>executeBatch</code> are collected, then run as one batch per
+	 * shard.
+	 */
+	public Object execute(SqlMapClientCallback action) {
+		try {
+			return action.doInSqlMapClient(routingExecutor());
+		} catch (SQLException e) {
+			throw getExceptionTranslator().translate("SqlMapClient operation", null, e);
+		}
+	}
+
+	private SqlMapExecutor routingExecutor() {
+		return (SqlMapExecutor) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { SqlMapExecutor.class }, new InvocationHandler() {
+					private List<Object[]> batch;
+
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("startBatch".equals(name)) {
+							batch = new ArrayList<Object[]>();
+							return null;
+						}
+						if ("executeBatch".equals(name) || "executeBatchDetailed".equals(name)) {
+							int rows = executeBatch(batch == null ? new ArrayList<Object[]>() : batch);
+							batch = null;
+							return "executeBatch".equals(name) ? (Object) rows : new ArrayList<Object>();
+						}
+						if (batch != null && args != null && args.length == 2
+								&& ("insert".equals(name) || "update".equals(name) || "delete".equals(name))) {
+							batch.add(new Object[] { name, args[0], args[1] });
+							return "insert".equals(name) ? null : (Object) 0;
+						}
+						try {
+							return ShardedSqlMapClientTemplate.class.getMethod(name, method.getParameterTypes())
+									.invoke(ShardedSqlMapClientTemplate.this, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+
+	private int executeBatch(List<Object[]> statements) {
+		final Map<Integer, List<Object[]>> byShard = new HashMap<Integer, List<Object[]>>();
+		for (Object[] statement : statements) {
+			Integer id = loanId(statement[2]);
+			if (id == null) {
+				throw new UnsupportedOperationException(statement[1] + " needs a loan id to run in a sharded batch");
+			}
+			int shard = shard(id);
+			if (!byShard.containsKey(shard)) {
+				byShard.put(shard, new ArrayList<Object[]>());
+			}
+			byShard.get(shard).add(statement);
+		}
+		int rows = 0;
+		for (Object result : onShards(byShard.keySet(), new ShardCall() {
+			public Object call(SqlMapClientTemplate shard) {
+				final List<Object[]> shardStatements = byShard.get(shards.indexOf(shard));
+				return shard.execute(new SqlMapClientCallback() {
+					public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+						executor.startBatch();
+						for (Object[] statement : shardStatements) {
+							if ("insert".equals(statement[0])) {
+								executor.insert((String) statement[1], statement[2]);
+							} else if ("update".equals(statement[0])) {
+								executor.update((String) statement[1], statement[2]);
+							} else {
+								executor.delete((String) statement[1], statement[2]);
+							}
+						}
+						return executor.executeBatch();
+					}
+				});
+			}
+		})) {
+			rows += ((Number) result).intValue();
+		}
+		return rows;
+	}
+
+	private interface ShardCall {
+
+		Object call(SqlMapClientTemplate shard);
+	}
+
+	private List<Object> onAllShards(ShardCall call) {
+		List<Integer> all = new ArrayList<Integer>(shards.size());
+		for (int i = 0; i < shards.size(); i++) {
+			all.add(i);
+		}
+		return onShards(all, call);
+	}
+
+	private List<Object> onShards(Iterable<Integer> shardNumbers, final ShardCall call) {
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (Integer shardNumber : shardNumbers) {
+			final SqlMapClientTemplate shard = shards.get(shardNumber);
+			futures.add(fanOut.submit(new Callable<Object>() {
+				public Object call() {
+					return call.call(shard);
+				}
+			}));
+		}
+		List<Object> results = new ArrayList<Object>(futures.size());
+		try {
+			for (Future<Object> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for the shards", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			for (Future<Object> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Sorts the rows by the statement's configured ordering, loan requests by
+	 * id otherwise, and leaves any other rows in shard order.
+	 */
+	@SuppressWarnings("unchecked")
+	private void sort(String statementName, List rows) {
+		final String[] properties = orderings.get(statementName);
+		if (properties != null) {
+			Collections.sort(rows, new Comparator<Object>() {
+				public int compare(Object left, Object right) {
+					BeanWrapper leftRow = new BeanWrapperImpl(left);
+					BeanWrapper rightRow = new BeanWrapperImpl(right);
+					for (String property : properties) {
+						Comparable<Object> leftValue = (Comparable<Object>) leftRow.getPropertyValue(property);
+						Object rightValue = rightRow.getPropertyValue(property);
+						int order = leftValue == null ? (rightValue == null ? 0 : -1)
+								: rightValue == null ? 1 : leftValue.compareTo(rightValue);
+						if (order != 0) {
+							return order;
+						}
+					}
+					return 0;
+				}
+			});
+		} else if (!rows.isEmpty() && rows.get(0) instanceof LoanRequest) {
+			Collections.sort(rows, byId);
+		}
+	}
+
+	/** Adds up numbers, otherwise returns the first result that is not null. */
+	private static Object combine(List<Object> results) {
+		Object first = null;
+		long sum = 0;
+		boolean numbers = true;
+		for (Object result : results) {
+			if (result == null) {
+				continue;
+			}
+			if (first == null) {
+				first = result;
+			}
+			if (result instanceof Number) {
+				sum += ((Number) result).longValue();
+			} else {
+				numbers = false;
+			}
+		}
+		if (first == null || !numbers) {
+			return first;
+		}
+		if (first instanceof Integer) {
+			return (int) sum;
+		}
+		return sum;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Integer loanId(Object parameterObject) {
+		if (parameterObject instanceof Map && ((Map<String, Object>) parameterObject).get("id") instanceof Number) {
+			return ((Number) ((Map<String, Object>) parameterObject).get("id")).intValue();
+		}
+		if (parameterObject instanceof Integer) {
+			return (Integer) parameterObject;
+		}
+		if (parameterObject instanceof Number) {
+			return ((Number) parameterObject).intValue();
+		}
+		if (parameterObject instanceof LoanRequest) {
+			return ((LoanRequest) parameterObject).getId();
+		}
+		return null;
+	}
+
+	/**
+	 * Splits a list of loan ids, or a map holding one under <code>ids</code>,
+	 * into one parameter per shard; null for any other parameter.
+	 */
+	@SuppressWarnings("unchecked")
+	private Map<Integer, Object> splitByShard(Object parameterObject) {
+		List<Object> ids;
+		if (parameterObject instanceof List) {
+			ids = (List<Object>) parameterObject;
+		} else if (parameterObject instanceof Map && ((Map<String, Object>) parameterObject).get("ids") instanceof List) {
+			ids = (List<Object>) ((Map<String, Object>) parameterObject).get("ids");
+		} else {
+			return null;
+		}
+		Map<Integer, List<Object>> idsByShard = new LinkedHashMap<Integer, List<Object>>();
+		for (Object id : ids) {
+			if (!(id instanceof Number)) {
+				return null;
+			}
+			int shard = shard(((Number) id).intValue());
+			if (!idsByShard.containsKey(shard)) {
+				idsByShard.put(shard, new ArrayList<Object>());
+			}
+			idsByShard.get(shard).add(id);
+		}
+		Map<Integer, Object> split = new LinkedHashMap<Integer, Object>();
+		for (Map.Entry<Integer, List<Object>> entry : idsByShard.entrySet()) {
+			if (parameterObject instanceof List) {
+				split.put(entry.getKey(), entry.getValue());
+			} else {
+				Map<String, Object> shardParameter = new HashMap<String, Object>((Map<String, Object>) parameterObject);
+				shardParameter.put("ids", entry.getValue());
+				split.put(entry.getKey(), shardParameter);
+			}
+		}
+		return split;
+	}
+
+	/** An offset page asks every shard for everything up to its end. */
+	@SuppressWarnings("unchecked")
+	private static Object shardPage(Object parameterObject) {
+		if (!(parameterObject instanceof Map)) {
+			return parameterObject;
+		}
+		Map<String, Object> page = (Map<String, Object>) parameterObject;
+		if (!(page.get("firstResult") instanceof Number) || !(page.get("maxResults") instanceof Number)) {
+			return parameterObject;
+		}
+		Map<String, Object> shardPage = new HashMap<String, Object>(page);
+		shardPage.put("firstResult", 0);
+		shardPage.put("maxResults", ((Number) page.get("firstResult")).intValue()
+				+ ((Number) page.get("maxResults")).intValue());
+		return shardPage;
+	}
+
+	/** Cuts the merged rows down to the requested page, if any. */
+	@SuppressWarnings("unchecked")
+	private static List page(List merged, Object parameterObject) {
+		if (!(parameterObject instanceof Map)) {
+			return merged;
+		}
+		Map<String, Object> page = (Map<String, Object>) parameterObject;
+		if (!(page.get("maxResults") instanceof Number)) {
+			return merged;
+		}
+		int first = page.get("firstResult") instanceof Number ? ((Number) page.get("firstResult")).intValue() : 0;
+		int max = ((Number) page.get("maxResults")).intValue();
+		int from = Math.min(first, merged.size());
+		return new ArrayList<Object>(merged.subList(from, Math.min(from + max, merged.size())));
+	}
+
+	public void setShards(List<SqlMapClientTemplate> shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * Statement names mapped to the comma separated row properties their
+	 * results are ordered by, for statements not ordered by id.
+	 */
+	public void setOrderings(Map<String, String> orderings) {
+		this.orderings = new HashMap<String, String[]>();
+		for (Map.Entry<String, String> ordering : orderings.entrySet()) {
+			this.orderings.put(ordering.getKey(), ordering.getValue().trim().split("\\s*,\\s*"));
+		}
+	}
+}
@@ -1,8 +1,22 @@
 package com.goSmarter.activiti.loanrequest.domain;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
 
 public class LoanRequest {
 
+	/** Recorded, but the submit task has not been completed yet. */
+	public static final String SUBMITTED = "SUBMITTED";
+
+	/** Submitted; the "Verify loan request" task is open. */
+	public static final String AWAITING_APPROVAL = "AWAITING_APPROVAL";
+
+	public static final String APPROVED = "APPROVED";
+
     private String processId;
 
 	private String customerName;
@@ -11,6 +25,25 @@ public class LoanRequest {
 
 	private Integer id;
 
+	private String status;
+
+	private static SqlMapClientTemplate ibatisTemplate;
+
+	/**
+	 * Set once from the application context, see
+	 * <code>test-datasource-config.xml</code>.
+	 */
+	public static void setIbatisTemplate(SqlMapClientTemplate ibatisTemplate) {
+		LoanRequest.ibatisTemplate = ibatisTemplate;
+	}
+
+	static SqlMapClientTemplate ibatisTemplate() {
+		if (ibatisTemplate == null) {
+			throw new IllegalStateException("SqlMapClientTemplate has not been injected");
+		}
+		return ibatisTemplate;
+	}
+
     public String getProcessId() {
 		return processId;
 	}
@@ -27,6 +60,26 @@ public class LoanRequest {
 		this.customerName = customerName;
 	}
 
+	/**
+	 * The customer name in upper case, stored in CUSTOMERNAME_KEY for the
+	 * indexed, case insensitive prefix search.
+	 */
+	public String getCustomerNameKey() {
+		return customerNameKey(customerName);
+	}
+
+	static String customerNameKey(String customerName) {
+		return customerName == null ? null : customerName.toUpperCase(Locale.ROOT);
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
 	public Double getAmount() {
 		return amount;
 	}
@@ -46,18 +99,76 @@ public class LoanRequest {
 	}
 
 	public static LoanRequest findLoanRequest(Long id) {
-		// TODO Auto-generated method stub
-		return null;
+		if (id == null) return null;
+		return (LoanRequest) ibatisTemplate().queryForObject("GoSmarter.loanRequestDetails", id.intValue());
 	}
 
-	public static float countLoanRequests() {
-		// TODO Auto-generated method stub
-		return 0;
+	/**
+	 * The loan request a process instance belongs to; an indexed lookup on
+	 * LOANREQUEST.PROCESSID.
+	 */
+	public static LoanRequest findLoanRequestByProcessId(String processId) {
+		if (processId == null) return null;
+		return (LoanRequest) ibatisTemplate().queryForObject("GoSmarter.loanRequestByProcessId", processId);
 	}
 
-	public static Object findLoanRequestEntries(int firstResult, int sizeNo) {
-		// TODO Auto-generated method stub
-		return null;
+	public static long countLoanRequests() {
+		return ((Integer) ibatisTemplate().queryForObject("GoSmarter.loanRequestCount")).longValue();
+	}
+
+	/**
+	 * Offset based paging, ordered by id. The database still has to walk past
+	 * <code>firstResult</code> rows, so prefer
+	 * {@link #findLoanRequestEntriesAfter(Integer, int)} for deep pages.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<LoanRequest> findLoanRequestEntries(int firstResult, int maxResults) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("firstResult", firstResult);
+		params.put("maxResults", maxResults);
+		return ibatisTemplate().queryForList("GoSmarter.loanRequestEntries", params);
+	}
+
+	/**
+	 * Keyset paging: returns up to <code>maxResults</code> loan requests with an
+	 * id greater than <code>afterId</code> (from the start when it is
+	 * <code>null</code>), ordered by id. Seeks on the primary key, so the cost
+	 * of a page does not depend on how deep it is.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<LoanRequest> findLoanRequestEntriesAfter(Integer afterId, int maxResults) {
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("afterId", afterId);
+		params.put("maxResults", maxResults);
+		return ibatisTemplate().queryForList("GoSmarter.loanRequestEntriesAfter", params);
+	}
+
+	/**
+	 * Case insensitive prefix search on the customer name, ordered by name and
+	 * id, in keyset pages: pass the name key and id of the last loan request
+	 * of the previous page, or nulls for the first page. Loan requests without
+	 * a name never match. The prefix becomes a
+	 * range on the CUSTOMERNAME_KEY index, so a page costs an index seek and
+	 * <code>maxResults</code> rows however many loans there are.
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<LoanRequest> findLoanRequestsByCustomerNamePrefix(String prefix, String afterKey,
+			Integer afterId, int maxResults) {
+		String from = customerNameKey(prefix == null ? "" : prefix);
+		// the first key past every key starting with the prefix
+		String to = from;
+		while (to.length() > 0 && to.charAt(to.length() - 1) == Character.MAX_VALUE) {
+			to = to.substring(0, to.length() - 1);
+		}
+		to = to.length() == 0 ? null : to.substring(0, to.length() - 1) + (char) (to.charAt(to.length() - 1) + 1);
+
+		Map<String, Object> params = new HashMap<String, Object>();
+		params.put("from", from);
+		params.put("to", to);
+		params.put("afterKey", afterId == null ? null : afterKey);
+		params.put("afterId", afterKey == null ? null : afterId);
+		params.put("maxResults", maxResults);
+		return ibatisTemplate().queryForList("GoSmarter.loanRequestSearch", params);
 	}
 
 	public static Object findAllLoanRequests() {
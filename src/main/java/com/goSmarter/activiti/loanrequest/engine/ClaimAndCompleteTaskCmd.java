@@ -0,0 +1,42 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import org.activiti.engine.impl.TaskQueryImpl;
+import org.activiti.engine.impl.cmd.ClaimTaskCmd;
+import org.activiti.engine.impl.cmd.CompleteTaskCmd;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.task.Task;
+
+/**
+ * Looks up the single task of a process instance that the given user is a
+ * candidate for, then claims and completes it. Everything runs inside one
+ * engine command, so the lookup, the claim and the completion share one
+ * transaction.
+ * 
+ * Returns the id of the completed task, or <code>null</code> when the user
+ * has no candidate task in that process instance.
+ */
+public class ClaimAndCompleteTaskCmd implements Command<String> {
+
+	private final String processInstanceId;
+
+	private final String userId;
+
+	public ClaimAndCompleteTaskCmd(String processInstanceId, String userId) {
+		this.processInstanceId = processInstanceId;
+		this.userId = userId;
+	}
+
+	public String execute(CommandContext commandContext) {
+		Task task = new TaskQueryImpl(commandContext)
+				.processInstanceId(processInstanceId)
+				.taskCandidateUser(userId)
+				.singleResult();
+		if (task == null) {
+			return null;
+		}
+		new ClaimTaskCmd(task.getId(), userId).execute(commandContext);
+		new CompleteTaskCmd(task.getId(), null).execute(commandContext);
+		return task.getId();
+	}
+}
@@ -0,0 +1,40 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+
+/**
+ * Batch form of {@link ClaimAndCompleteTaskCmd}: claims and completes the
+ * candidate task of every given process instance in one command, and so in
+ * one transaction. Each lookup is scoped to its process instance, which the
+ * engine has indexed; the task query of this engine version cannot filter on
+ * a list of process instances.
+ * 
+ * Returns the completed task id per process instance id, <code>null</code>
+ * for instances without a candidate task. If any claim fails the whole batch
+ * rolls back.
+ */
+public class ClaimAndCompleteTasksCmd implements Command<Map<String, String>> {
+
+	private final List<String> processInstanceIds;
+
+	private final String userId;
+
+	public ClaimAndCompleteTasksCmd(List<String> processInstanceIds, String userId) {
+		this.processInstanceIds = processInstanceIds;
+		this.userId = userId;
+	}
+
+	public Map<String, String> execute(CommandContext commandContext) {
+		Map<String, String> taskIds = new LinkedHashMap<String, String>();
+		for (String processInstanceId : processInstanceIds) {
+			taskIds.put(processInstanceId, new ClaimAndCompleteTaskCmd(
+					processInstanceId, userId).execute(commandContext));
+		}
+		return taskIds;
+	}
+}
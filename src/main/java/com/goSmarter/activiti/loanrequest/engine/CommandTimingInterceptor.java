@@ -0,0 +1,40 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandInterceptor;
+
+import com.goSmarter.activiti.loanrequest.metrics.TimingMetrics;
+
+/**
+ * Engine command interceptor that times every command by class, as
+ * <code>command.&lt;class&gt;</code>. Registered first among the custom pre
+ * interceptors, it sees the commands the services and the command executor
+ * run; commands that another command executes directly, like the claim and
+ * complete inside {@link ClaimAndCompleteTaskCmd}, count towards the outer
+ * one.
+ */
+public class CommandTimingInterceptor extends CommandInterceptor {
+
+	private TimingMetrics timingMetrics;
+
+	public <T> T execute(Command<T> command) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			T result = next.execute(command);
+			failed = false;
+			return result;
+		} finally {
+			timingMetrics.record("command." + name(command.getClass()), System.nanoTime() - start, failed);
+		}
+	}
+
+	private static String name(Class<?> commandClass) {
+		String name = commandClass.getSimpleName();
+		return name.length() == 0 ? commandClass.getName() : name;
+	}
+
+	public void setTimingMetrics(TimingMetrics timingMetrics) {
+		this.timingMetrics = timingMetrics;
+	}
+}
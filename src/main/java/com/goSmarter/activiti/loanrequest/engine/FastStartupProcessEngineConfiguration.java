@@ -0,0 +1,184 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.activiti.engine.ActivitiException;
+import org.activiti.engine.ProcessEngine;
+import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StopWatch;
+
+/**
+ * Spring process engine configuration that boots faster when nothing changed
+ * since the last start:
+ * <ul>
+ * <li>the deployment resources are fingerprinted into the deployment name,
+ * and deployment is skipped when a deployment with that name exists, so the
+ * BPMN is neither read into a deployment nor compared against the previous
+ * one;</li>
+ * <li>with <code>databaseSchemaUpdate=true</code> and the engine tables
+ * present, only the schema version is checked instead of running the update
+ * check. An Activiti upgrade then fails fast on the version check; start once
+ * with <code>fastStartup</code> off to upgrade the schema.</li>
+ * </ul>
+ * Either way the time spent in each startup phase is logged.
+ * <p>
+ * With <code>idStrategy</code> set to <code>time-ordered</code> the engine
+ * ids come from a {@link TimeOrderedIdGenerator} instead of id blocks taken
+ * from <code>ACT_GE_PROPERTY</code>, so several nodes on one database do not
+ * queue on that row. Switch only on an empty database or for all nodes at
+ * once.
+ */
+public class FastStartupProcessEngineConfiguration extends SpringProcessEngineConfiguration {
+
+	private static Log logger = LogFactory.getLog(FastStartupProcessEngineConfiguration.class);
+
+	public static final String ID_STRATEGY_DB = "db";
+
+	public static final String ID_STRATEGY_TIME_ORDERED = "time-ordered";
+
+	private boolean fastStartup = true;
+
+	private String idStrategy = ID_STRATEGY_DB;
+
+	private StopWatch startupWatch;
+
+	public ProcessEngine buildProcessEngine() {
+		startupWatch = new StopWatch("process engine startup");
+		phase("configuration");
+		try {
+			return super.buildProcessEngine();
+		} finally {
+			startupWatch.stop();
+			logger.info(startupWatch.prettyPrint());
+		}
+	}
+
+	protected void init() {
+		super.init();
+		phase("schema check and engine start");
+	}
+
+	protected void initDataSource() {
+		phase("datasource");
+		super.initDataSource();
+		if (fastStartup && DB_SCHEMA_UPDATE_TRUE.equals(databaseSchemaUpdate) && engineTablesPresent()) {
+			logger.debug("engine tables present, checking the schema version only");
+			databaseSchemaUpdate = DB_SCHEMA_UPDATE_FALSE;
+		}
+		phase("configuration");
+	}
+
+	protected void initIdGenerator() {
+		if (idGenerator == null && ID_STRATEGY_TIME_ORDERED.equals(idStrategy)) {
+			idGenerator = new TimeOrderedIdGenerator();
+		} else if (!ID_STRATEGY_DB.equals(idStrategy) && !ID_STRATEGY_TIME_ORDERED.equals(idStrategy)) {
+			throw new ActivitiException("unknown id strategy " + idStrategy);
+		}
+		super.initIdGenerator();
+	}
+
+	protected void initSqlSessionFactory() {
+		phase("mybatis mappings");
+		super.initSqlSessionFactory();
+		phase("configuration");
+	}
+
+	protected void autoDeployResources(ProcessEngine processEngine) {
+		phase("deployment");
+		if (!fastStartup || deploymentResources == null || deploymentResources.length == 0) {
+			super.autoDeployResources(processEngine);
+			return;
+		}
+		String name = deploymentName;
+		String fingerprintedName = name + "-" + fingerprint(deploymentResources);
+		if (processEngine.getRepositoryService().createDeploymentQuery()
+				.deploymentName(fingerprintedName).count() > 0) {
+			logger.info("deployment " + fingerprintedName + " is up to date, not redeploying");
+			return;
+		}
+		deploymentName = fingerprintedName;
+		try {
+			super.autoDeployResources(processEngine);
+		} finally {
+			deploymentName = name;
+		}
+	}
+
+	private void phase(String name) {
+		if (startupWatch.isRunning()) {
+			startupWatch.stop();
+		}
+		startupWatch.start(name);
+	}
+
+	private boolean engineTablesPresent() {
+		try {
+			Connection connection = dataSource.getConnection();
+			try {
+				ResultSet tables = connection.getMetaData().getTables(null, null, "ACT_GE_PROPERTY", null);
+				try {
+					return tables.next();
+				} finally {
+					tables.close();
+				}
+			} finally {
+				connection.close();
+			}
+		} catch (SQLException e) {
+			throw new ActivitiException("could not look up the engine tables", e);
+		}
+	}
+
+	/** SHA-1 over the names and contents of the resources, in order. */
+	static String fingerprint(Resource[] resources) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			byte[] buffer = new byte[8192];
+			for (Resource resource : resources) {
+				digest.update(String.valueOf(resource.getFilename()).getBytes("UTF-8"));
+				InputStream in = resource.getInputStream();
+				try {
+					for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+						digest.update(buffer, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest()) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (IOException e) {
+			throw new ActivitiException("could not read the deployment resources", e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new ActivitiException("SHA-1 is not available", e);
+		}
+	}
+
+	public boolean isFastStartup() {
+		return fastStartup;
+	}
+
+	public void setFastStartup(boolean fastStartup) {
+		this.fastStartup = fastStartup;
+	}
+
+	public String getIdStrategy() {
+		return idStrategy;
+	}
+
+	public void setIdStrategy(String idStrategy) {
+		this.idStrategy = idStrategy;
+	}
+}
@@ -0,0 +1,52 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import org.activiti.engine.impl.cmd.CreateMembershipCmd;
+import org.activiti.engine.impl.cmd.DeleteGroupCmd;
+import org.activiti.engine.impl.cmd.DeleteMembershipCmd;
+import org.activiti.engine.impl.cmd.DeleteUserCmd;
+import org.activiti.engine.impl.cmd.SaveUserCmd;
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandInterceptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Engine command interceptor that publishes an {@link IdentityChangedEvent}
+ * whenever the IdentityService saves or deletes a user, creates or deletes a
+ * membership, or deletes a group. When the command joined a surrounding
+ * Spring transaction, the event is published again once that transaction
+ * completes.
+ */
+public class IdentityChangeInterceptor extends CommandInterceptor implements ApplicationEventPublisherAware {
+
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	public <T> T execute(final Command<T> command) {
+		T result = next.execute(command);
+		if (changesIdentity(command)) {
+			applicationEventPublisher.publishEvent(new IdentityChangedEvent(command));
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+					public void afterCompletion(int status) {
+						applicationEventPublisher.publishEvent(new IdentityChangedEvent(command));
+					}
+				});
+			}
+		}
+		return result;
+	}
+
+	private static boolean changesIdentity(Command<?> command) {
+		return command instanceof SaveUserCmd
+				|| command instanceof DeleteUserCmd
+				|| command instanceof CreateMembershipCmd
+				|| command instanceof DeleteMembershipCmd
+				|| command instanceof DeleteGroupCmd;
+	}
+
+	public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+		this.applicationEventPublisher = applicationEventPublisher;
+	}
+}
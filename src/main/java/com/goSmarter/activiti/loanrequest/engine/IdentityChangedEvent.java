@@ -0,0 +1,17 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import org.activiti.engine.impl.interceptor.Command;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published after a command that changes users or group memberships has
+ * committed. The source is the command.
+ */
+public class IdentityChangedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	public IdentityChangedEvent(Command<?> command) {
+		super(command);
+	}
+}
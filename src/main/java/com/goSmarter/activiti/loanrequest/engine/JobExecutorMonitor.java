@@ -0,0 +1,65 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.activiti.engine.ManagementService;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+import org.activiti.engine.impl.jobexecutor.JobExecutor;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Exposes how far the job executor is behind: jobs waiting in the database,
+ * jobs acquired but queued in front of the worker threads, and busy workers.
+ * A growing number of executable jobs with all workers busy means the pool
+ * is saturated.
+ */
+@ManagedResource
+public class JobExecutorMonitor {
+
+	private ProcessEngineConfigurationImpl processEngineConfiguration;
+
+	private ManagementService managementService;
+
+	@ManagedAttribute
+	public boolean isActive() {
+		JobExecutor jobExecutor = processEngineConfiguration.getJobExecutor();
+		return jobExecutor != null && jobExecutor.isActive();
+	}
+
+	@ManagedAttribute
+	public long getExecutableJobs() {
+		return managementService.createJobQuery().executable().count();
+	}
+
+	@ManagedAttribute
+	public int getQueuedJobs() {
+		ThreadPoolExecutor threadPool = threadPool();
+		return threadPool == null ? 0 : threadPool.getQueue().size();
+	}
+
+	@ManagedAttribute
+	public int getActiveWorkers() {
+		ThreadPoolExecutor threadPool = threadPool();
+		return threadPool == null ? 0 : threadPool.getActiveCount();
+	}
+
+	@ManagedAttribute
+	public int getPoolSize() {
+		ThreadPoolExecutor threadPool = threadPool();
+		return threadPool == null ? 0 : threadPool.getPoolSize();
+	}
+
+	private ThreadPoolExecutor threadPool() {
+		JobExecutor jobExecutor = processEngineConfiguration.getJobExecutor();
+		return jobExecutor == null ? null : jobExecutor.getThreadPoolExecutor();
+	}
+
+	public void setProcessEngineConfiguration(ProcessEngineConfigurationImpl processEngineConfiguration) {
+		this.processEngineConfiguration = processEngineConfiguration;
+	}
+
+	public void setManagementService(ManagementService managementService) {
+		this.managementService = managementService;
+	}
+}
@@ -0,0 +1,69 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.jobexecutor.JobHandler;
+import org.activiti.engine.impl.persistence.entity.ExecutionEntity;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.goSmarter.activiti.loanrequest.service.LoanRequestService;
+
+/**
+ * Runs the engine side of an asynchronous create or approve on the job
+ * executor. The job configuration is <code>submit:&lt;loanId&gt;:&lt;userId&gt;</code>
+ * or <code>approve:&lt;loanId&gt;:&lt;userId&gt;</code>; see
+ * {@link #submit(Integer, String)} and {@link #approve(Integer, String)}.
+ * 
+ * The work joins the job's transaction, so a failure rolls it back and the
+ * job executor retries it. {@link LoanRequestService} is looked up when a job
+ * runs, because it depends on the process engine this handler is part of.
+ * The work runs as the user who scheduled it, so the replica routing keeps
+ * that user's reads on the primary after the job's writes.
+ */
+public class LoanWorkflowJobHandler implements JobHandler, ApplicationContextAware {
+
+	public static final String TYPE = "loan-workflow";
+
+	private ApplicationContext applicationContext;
+
+	public static String submit(Integer loanId, String userId) {
+		return "submit:" + loanId + ":" + userId;
+	}
+
+	public static String approve(Integer loanId, String userId) {
+		return "approve:" + loanId + ":" + userId;
+	}
+
+	public String getType() {
+		return TYPE;
+	}
+
+	public void execute(String configuration, ExecutionEntity execution, CommandContext commandContext) {
+		String[] parts = configuration.split(":", 3);
+		Integer loanId = Integer.valueOf(parts[1]);
+		LoanRequestService loanRequestService = applicationContext.getBean(LoanRequestService.class);
+		SecurityContext previous = SecurityContextHolder.getContext();
+		SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+		securityContext.setAuthentication(new UsernamePasswordAuthenticationToken(parts[2], null));
+		SecurityContextHolder.setContext(securityContext);
+		try {
+			if ("submit".equals(parts[0])) {
+				loanRequestService.submit(loanId, parts[2]);
+			} else if ("approve".equals(parts[0])) {
+				loanRequestService.approve(loanId, true, parts[2]);
+			} else {
+				throw new IllegalArgumentException("unknown loan job: " + configuration);
+			}
+		} finally {
+			SecurityContextHolder.setContext(previous);
+		}
+	}
+
+	public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+		this.applicationContext = applicationContext;
+	}
+}
@@ -0,0 +1,99 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.activiti.engine.RepositoryService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.impl.RepositoryServiceImpl;
+import org.activiti.engine.repository.ProcessDefinition;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+
+/**
+ * Warms up the shared process engine while the application context starts,
+ * so the first requests do not pay for loading the process definition cache,
+ * preparing the engine's task statements or opening pool connections.
+ */
+public class ProcessEngineWarmUp implements InitializingBean {
+
+	private static Log logger = LogFactory.getLog(ProcessEngineWarmUp.class);
+
+	private RepositoryService repositoryService;
+
+	private TaskService taskService;
+
+	private List<String> processDefinitionKeys = Collections.singletonList("loanProcess");
+
+	private List<DataSource> dataSources = Collections.emptyList();
+
+	private int connections = 5;
+
+	public void afterPropertiesSet() throws Exception {
+		long start = System.currentTimeMillis();
+		for (String key : processDefinitionKeys) {
+			ProcessDefinition processDefinition = repositoryService
+					.createProcessDefinitionQuery()
+					.processDefinitionKey(key).latestVersion().singleResult();
+			if (processDefinition == null) {
+				logger.warn("warm-up: no deployed process definition with key " + key);
+				continue;
+			}
+			// parses the deployment into the engine's process definition cache
+			((RepositoryServiceImpl) repositoryService)
+					.getDeployedProcessDefinition(processDefinition.getId());
+		}
+		// first execution of the task query statements used on every approval
+		taskService.createTaskQuery().taskCandidateUser("warm-up").count();
+
+		for (DataSource dataSource : dataSources) {
+			openConnections(dataSource);
+		}
+		logger.info("process engine warm-up took "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Borrows the configured number of connections at the same time and hands
+	 * them back, so the pool holds that many open connections afterwards.
+	 */
+	private void openConnections(DataSource dataSource) throws SQLException {
+		List<Connection> opened = new ArrayList<Connection>(connections);
+		try {
+			for (int i = 0; i < connections; i++) {
+				opened.add(DataSourceUtils.getConnection(dataSource));
+			}
+		} finally {
+			for (Connection connection : opened) {
+				DataSourceUtils.releaseConnection(connection, dataSource);
+			}
+		}
+	}
+
+	public void setRepositoryService(RepositoryService repositoryService) {
+		this.repositoryService = repositoryService;
+	}
+
+	public void setTaskService(TaskService taskService) {
+		this.taskService = taskService;
+	}
+
+	public void setProcessDefinitionKeys(List<String> processDefinitionKeys) {
+		this.processDefinitionKeys = processDefinitionKeys;
+	}
+
+	public void setDataSources(List<DataSource> dataSources) {
+		this.dataSources = dataSources;
+	}
+
+	public void setConnections(int connections) {
+		this.connections = connections;
+	}
+}
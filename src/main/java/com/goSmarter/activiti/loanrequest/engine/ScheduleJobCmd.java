@@ -0,0 +1,29 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import org.activiti.engine.impl.interceptor.Command;
+import org.activiti.engine.impl.interceptor.CommandContext;
+import org.activiti.engine.impl.persistence.entity.MessageEntity;
+
+/**
+ * Inserts a message job for the job executor. The job becomes visible to
+ * the executor when the surrounding transaction commits.
+ */
+public class ScheduleJobCmd implements Command<String> {
+
+	private final String jobHandlerType;
+
+	private final String jobHandlerConfiguration;
+
+	public ScheduleJobCmd(String jobHandlerType, String jobHandlerConfiguration) {
+		this.jobHandlerType = jobHandlerType;
+		this.jobHandlerConfiguration = jobHandlerConfiguration;
+	}
+
+	public String execute(CommandContext commandContext) {
+		MessageEntity message = new MessageEntity();
+		message.setJobHandlerType(jobHandlerType);
+		message.setJobHandlerConfiguration(jobHandlerConfiguration);
+		commandContext.getJobManager().send(message);
+		return message.getId();
+	}
+}
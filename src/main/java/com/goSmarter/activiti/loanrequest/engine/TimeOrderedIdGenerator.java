@@ -0,0 +1,64 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.activiti.engine.impl.cfg.IdGenerator;
+
+/**
+ * Engine ids that need no shared row: UUIDs laid out like version 7, with
+ * the milliseconds since the epoch first, a 12 bit sequence within the
+ * millisecond and 62 random bits drawn once per generator, so each node
+ * writes its own stripe. Ids from one node are strictly increasing and ids
+ * from all nodes sort by creation time, which keeps inserts into the id
+ * indexes near the end instead of scattered.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+	private static final char[] digits = "0123456789abcdef".toCharArray();
+
+	/** Milliseconds shifted left by 12, plus the sequence within the millisecond. */
+	private final AtomicLong last = new AtomicLong();
+
+	private final long node;
+
+	public TimeOrderedIdGenerator() {
+		this(new SecureRandom().nextLong());
+	}
+
+	TimeOrderedIdGenerator(long node) {
+		this.node = (node & 0x3fffffffffffffffL) | 0x8000000000000000L;
+	}
+
+	public String getNextId() {
+		long next;
+		long previous;
+		do {
+			previous = last.get();
+			next = Math.max(previous + 1, System.currentTimeMillis() << 12);
+		} while (!last.compareAndSet(previous, next));
+
+		long millis = next >>> 12;
+		long sequence = next & 0xfff;
+		long high = (millis << 16) | 0x7000 | sequence;
+
+		char[] id = new char[36];
+		hex(high >>> 32, id, 0, 8);
+		id[8] = '-';
+		hex(high >>> 16, id, 9, 4);
+		id[13] = '-';
+		hex(high, id, 14, 4);
+		id[18] = '-';
+		hex(node >>> 48, id, 19, 4);
+		id[23] = '-';
+		hex(node, id, 24, 12);
+		return new String(id);
+	}
+
+	private static void hex(long value, char[] id, int offset, int length) {
+		for (int i = offset + length - 1; i >= offset; i--) {
+			id[i] = digits[(int) (value & 0xf)];
+			value >>>= 4;
+		}
+	}
+}
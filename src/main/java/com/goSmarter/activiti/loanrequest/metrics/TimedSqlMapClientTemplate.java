@@ -0,0 +1,137 @@
+package com.goSmarter.activiti.loanrequest.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+
+import com.ibatis.sqlmap.client.event.RowHandler;
+
+/**
+ * A {@link SqlMapClientTemplate} that times every statement by id in
+ * {@link TimingMetrics}, as <code>statement.&lt;id&gt;</code>. The variants
+ * without a parameter delegate to the ones with one, so they are not
+ * overridden. Statements run inside an
+ * {@link #execute(SqlMapClientCallback)} callback, such as the import
+ * batches, go straight to the executor and are not timed.
+ */
+public class TimedSqlMapClientTemplate extends SqlMapClientTemplate {
+
+	private TimingMetrics timingMetrics;
+
+	public Object queryForObject(String statementName, Object parameterObject) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Object result = super.queryForObject(statementName, parameterObject);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public Object queryForObject(String statementName, Object parameterObject, Object resultObject) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Object result = super.queryForObject(statementName, parameterObject, resultObject);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public List queryForList(String statementName, Object parameterObject) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			List result = super.queryForList(statementName, parameterObject);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public List queryForList(String statementName, Object parameterObject, int skipResults, int maxResults) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			List result = super.queryForList(statementName, parameterObject, skipResults, maxResults);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public void queryWithRowHandler(String statementName, Object parameterObject, RowHandler rowHandler) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			super.queryWithRowHandler(statementName, parameterObject, rowHandler);
+			failed = false;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public Map queryForMap(String statementName, Object parameterObject, String keyProperty) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Map result = super.queryForMap(statementName, parameterObject, keyProperty);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public Object insert(String statementName, Object parameterObject) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			Object result = super.insert(statementName, parameterObject);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public int update(String statementName, Object parameterObject) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			int result = super.update(statementName, parameterObject);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	public int delete(String statementName, Object parameterObject) {
+		long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			int result = super.delete(statementName, parameterObject);
+			failed = false;
+			return result;
+		} finally {
+			record(statementName, start, failed);
+		}
+	}
+
+	private void record(String statementName, long start, boolean failed) {
+		timingMetrics.record("statement." + statementName, System.nanoTime() - start, failed);
+	}
+
+	public void setTimingMetrics(TimingMetrics timingMetrics) {
+		this.timingMetrics = timingMetrics;
+	}
+}
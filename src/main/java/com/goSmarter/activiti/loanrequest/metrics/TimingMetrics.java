@@ -0,0 +1,119 @@
+package com.goSmarter.activiti.loanrequest.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+/**
+ * Call counts, failures and latency histograms by name, for example
+ * <code>command.StartProcessInstanceCmd</code> or
+ * <code>statement.GoSmarter.loanRequestDetails</code>. Calls slower than
+ * {@link #setSlowThresholdMillis(long) the slow threshold} are logged.
+ * Latencies are kept in microseconds, up to one minute, with three
+ * significant digits.
+ */
+@ManagedResource
+public class TimingMetrics {
+
+	private static Log logger = LogFactory.getLog(TimingMetrics.class);
+
+	private static final long maxMicros = TimeUnit.MINUTES.toMicros(1);
+
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+	private volatile long slowThresholdMillis = 500;
+
+	public void record(String name, long nanos, boolean failed) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer created = new Timer();
+			timer = timers.putIfAbsent(name, created);
+			if (timer == null) {
+				timer = created;
+			}
+		}
+		timer.record(nanos, failed);
+		if (nanos >= TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis)) {
+			logger.warn("slow " + name + ": " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms"
+					+ (failed ? " (failed)" : ""));
+		}
+	}
+
+	/**
+	 * Count, failures and latency percentiles in microseconds for every name,
+	 * sorted by name.
+	 */
+	public Map<String, Map<String, Long>> snapshot() {
+		Map<String, Map<String, Long>> snapshot = new TreeMap<String, Map<String, Long>>();
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		return snapshot;
+	}
+
+	/** One line per name: count, failures, mean, p50, p99, p999 and max. */
+	@ManagedAttribute
+	public String[] getTimings() {
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Map<String, Long>> entry : snapshot().entrySet()) {
+			lines.add(entry.getKey() + " " + entry.getValue());
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	@ManagedOperation
+	public void reset() {
+		timers.clear();
+	}
+
+	@ManagedAttribute
+	public long getSlowThresholdMillis() {
+		return slowThresholdMillis;
+	}
+
+	@ManagedAttribute
+	public void setSlowThresholdMillis(long slowThresholdMillis) {
+		this.slowThresholdMillis = slowThresholdMillis;
+	}
+
+	private static class Timer {
+
+		private final Histogram histogram = new ConcurrentHistogram(maxMicros, 3);
+
+		private final AtomicLong failures = new AtomicLong();
+
+		void record(long nanos, boolean failed) {
+			histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), maxMicros));
+			if (failed) {
+				failures.incrementAndGet();
+			}
+		}
+
+		Map<String, Long> snapshot() {
+			Histogram copy = histogram.copy();
+			Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+			snapshot.put("count", copy.getTotalCount());
+			snapshot.put("failures", failures.get());
+			snapshot.put("meanMicros", (long) copy.getMean());
+			snapshot.put("p50Micros", copy.getValueAtPercentile(50));
+			snapshot.put("p99Micros", copy.getValueAtPercentile(99));
+			snapshot.put("p999Micros", copy.getValueAtPercentile(99.9));
+			snapshot.put("maxMicros", copy.getMaxValue());
+			return snapshot;
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package com.goSmarter.activiti.loanrequest.security;
+
+import org.springframework.context.ApplicationListener;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import com.goSmarter.activiti.loanrequest.cache.BoundedCache;
+import com.goSmarter.activiti.loanrequest.engine.IdentityChangedEvent;
+
+/**
+ * {@link UserCache} in front of the JDBC user queries on the engine
+ * database. Entries expire with the underlying {@link BoundedCache}, and the
+ * whole cache is cleared when an {@link IdentityChangedEvent} reports a user
+ * or membership change (the engine commands do not expose which user they
+ * touched, and such changes are rare).
+ * 
+ * Copies are stored and handed out, because the authentication manager
+ * erases the credentials of the principal it returns.
+ */
+public class ExpiringUserCache implements UserCache, ApplicationListener<IdentityChangedEvent> {
+
+	private final BoundedCache<String, UserDetails> cache;
+
+	public ExpiringUserCache(BoundedCache<String, UserDetails> cache) {
+		this.cache = cache;
+	}
+
+	public UserDetails getUserFromCache(String username) {
+		UserDetails user = cache.get(username);
+		return user == null ? null : copy(user);
+	}
+
+	public void putUserInCache(UserDetails user) {
+		cache.put(user.getUsername(), copy(user));
+	}
+
+	public void removeUserFromCache(String username) {
+		cache.remove(username);
+	}
+
+	public void onApplicationEvent(IdentityChangedEvent event) {
+		cache.clear();
+	}
+
+	private static UserDetails copy(UserDetails user) {
+		return new User(user.getUsername(), user.getPassword(), user.isEnabled(),
+				user.isAccountNonExpired(), user.isCredentialsNonExpired(),
+				user.isAccountNonLocked(), user.getAuthorities());
+	}
+}
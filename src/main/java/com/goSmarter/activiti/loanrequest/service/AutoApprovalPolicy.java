@@ -0,0 +1,124 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.activiti.engine.delegate.DelegateExecution;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+
+/**
+ * Decides which loans skip the "Verify loan request" task. The exclusive
+ * gateway after the submit task in <code>LoanProcess.bpmn20.xml</code> asks
+ * {@link #approves(DelegateExecution)}; when it answers true the process
+ * ends in the transaction that submitted it, without a task or identity
+ * links for the managers.
+ *
+ * A loan qualifies when the policy is enabled, its amount is at most
+ * <code>maxAmount</code>, and the optional SpEL <code>rule</code>, evaluated
+ * against the <code>amount</code> and <code>customerName</code> process
+ * variables, is true; for example
+ * <code>customerName != null and !customerName.isEmpty()</code>. The
+ * variables are only set on processes started while the policy is enabled,
+ * see {@link #variables(LoanRequest)}.
+ */
+@Component("autoApprovalPolicy")
+@ManagedResource
+public class AutoApprovalPolicy {
+
+	@Value("${loanrequest.autoApproval.enabled:false}")
+	boolean enabled;
+
+	@Value("${loanrequest.autoApproval.maxAmount:1000}")
+	double maxAmount = 1000;
+
+	@Value("${loanrequest.autoApproval.rule:}")
+	String rule = "";
+
+	private Expression ruleExpression;
+
+	private final AtomicLong approved = new AtomicLong();
+
+	private final AtomicLong referred = new AtomicLong();
+
+	@PostConstruct
+	public void parseRule() {
+		ruleExpression = rule == null || rule.trim().isEmpty() ? null : new SpelExpressionParser()
+				.parseExpression(rule);
+	}
+
+	/**
+	 * The process variables the gateway needs, or none when the policy is
+	 * disabled, so the manual path writes no variable rows.
+	 */
+	public Map<String, Object> variables(LoanRequest loanRequest) {
+		Map<String, Object> variables = new HashMap<String, Object>();
+		if (enabled) {
+			variables.put("amount", loanRequest.getAmount());
+			variables.put("customerName", loanRequest.getCustomerName());
+		}
+		return variables;
+	}
+
+	/** Called by the gateway: true when the loan needs no manager. */
+	public boolean approves(DelegateExecution execution) {
+		boolean approves = enabled && approves((Double) execution.getVariable("amount"),
+				(String) execution.getVariable("customerName"));
+		(approves ? approved : referred).incrementAndGet();
+		return approves;
+	}
+
+	boolean approves(Double amount, String customerName) {
+		if (amount == null || amount.doubleValue() > maxAmount) {
+			return false;
+		}
+		if (ruleExpression == null) {
+			return true;
+		}
+		LoanRequest loan = new LoanRequest();
+		loan.setAmount(amount);
+		loan.setCustomerName(customerName);
+		return Boolean.TRUE.equals(ruleExpression.getValue(new StandardEvaluationContext(loan), Boolean.class));
+	}
+
+	@ManagedAttribute
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Switches the policy at runtime; only processes started afterwards carry its variables. */
+	@ManagedAttribute
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@ManagedAttribute
+	public double getMaxAmount() {
+		return maxAmount;
+	}
+
+	@ManagedAttribute
+	public String getRule() {
+		return rule;
+	}
+
+	@ManagedAttribute
+	public long getApproved() {
+		return approved.get();
+	}
+
+	@ManagedAttribute
+	public long getReferred() {
+		return referred.get();
+	}
+}
@@ -0,0 +1,67 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads <code>id,customerName,amount</code> lines. A header line starting
+ * with <code>id</code> is skipped, and fields may be wrapped in double quotes
+ * when they contain commas.
+ */
+public class CsvLoanImportReader implements LoanImportReader {
+
+	private final BufferedReader reader;
+
+	private int lineNumber = 0;
+
+	public CsvLoanImportReader(InputStream inputStream, String encoding) throws IOException {
+		this.reader = new BufferedReader(new InputStreamReader(inputStream, encoding));
+	}
+
+	public LoanImportRecord next() throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().length() == 0) {
+				continue;
+			}
+			if (lineNumber == 1 && line.trim().toLowerCase().startsWith("id")) {
+				continue;
+			}
+			List<String> fields = split(line);
+			if (fields.size() != 3) {
+				return LoanImportRecord.invalid(lineNumber, "expected 3 fields but found " + fields.size());
+			}
+			return LoanImportRecord.parse(lineNumber, fields.get(0), fields.get(1), fields.get(2));
+		}
+		return null;
+	}
+
+	static List<String> split(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
@@ -0,0 +1,48 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.MappingJsonFactory;
+
+/**
+ * Reads a JSON array of <code>{"id": .., "customerName": .., "amount": ..}</code>
+ * objects element by element with a streaming parser.
+ */
+public class JsonLoanImportReader implements LoanImportReader {
+
+	private static final MappingJsonFactory jsonFactory = new MappingJsonFactory();
+
+	private final JsonParser parser;
+
+	private int index = 0;
+
+	public JsonLoanImportReader(InputStream inputStream) throws IOException {
+		this.parser = jsonFactory.createJsonParser(inputStream);
+		if (parser.nextToken() != JsonToken.START_ARRAY) {
+			throw new IOException("expected a JSON array of loan requests");
+		}
+	}
+
+	public LoanImportRecord next() throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token == null || token == JsonToken.END_ARRAY) {
+			return null;
+		}
+		index++;
+		JsonNode node = parser.readValueAsTree();
+		if (!node.isObject()) {
+			return LoanImportRecord.invalid(index, "expected an object");
+		}
+		return LoanImportRecord.parse(index, text(node, "id"),
+				text(node, "customerName"), text(node, "amount"));
+	}
+
+	private static String text(JsonNode node, String field) {
+		JsonNode value = node.get(field);
+		return value == null || value.isNull() ? null : value.asText();
+	}
+}
@@ -0,0 +1,35 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+/**
+ * Outcome of approving one loan request in a batch.
+ */
+public class LoanApprovalResult {
+
+	public enum Status {
+		APPROVED, NOT_FOUND, NO_PROCESS, NO_TASK, FAILED
+	}
+
+	private final Integer loanId;
+
+	private final Status status;
+
+	private final String message;
+
+	LoanApprovalResult(Integer loanId, Status status, String message) {
+		this.loanId = loanId;
+		this.status = status;
+		this.message = message;
+	}
+
+	public Integer getLoanId() {
+		return loanId;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+}
@@ -0,0 +1,211 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.activiti.engine.TaskService;
+import org.activiti.engine.task.Task;
+import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.goSmarter.activiti.loanrequest.cache.BoundedCache;
+import com.goSmarter.activiti.loanrequest.cache.LoanRequestVersions;
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.engine.ClaimAndCompleteTasksCmd;
+import com.goSmarter.activiti.loanrequest.service.LoanApprovalResult.Status;
+
+/**
+ * Approves many loan requests at once: their process ids are resolved with
+ * one query, and the "Verify loan request" tasks are claimed and completed in
+ * one engine command per chunk. The command and the LOANREQUEST status and
+ * statistics updates of a chunk run in one transaction. A chunk that fails
+ * (for example because another manager claimed one of its tasks) is retried
+ * loan by loan, so every id gets its own result.
+ * 
+ * The approver inbox pages through the open verify tasks the user may claim
+ * and fetches their loans with one query on LOANREQUEST.PROCESSID, so a page
+ * costs two queries however large it is.
+ */
+@Service
+public class LoanApprovalService {
+
+	private static Log logger = LogFactory.getLog(LoanApprovalService.class);
+
+	@Autowired
+	SqlMapClientTemplate ibatisTemplate;
+
+	@Autowired
+	SpringProcessEngineConfiguration processEngineConfiguration;
+
+	@Autowired
+	TaskService taskService;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	@Qualifier("loanRequestCache")
+	BoundedCache<Integer, LoanRequest> loanRequestCache;
+
+	@Autowired
+	LoanRequestVersions loanRequestVersions;
+
+	@Autowired
+	LoanStatisticsService loanStatisticsService;
+
+	private static final String VERIFY_TASK_NAME = "Verify loan request";
+
+	@Value("${loanrequest.approval.chunkSize:100}")
+	int chunkSize;
+
+	@SuppressWarnings("unchecked")
+	public List<LoanApprovalResult> approveAll(List<Integer> loanIds, String userId) {
+		Map<Integer, LoanApprovalResult> results = new LinkedHashMap<Integer, LoanApprovalResult>();
+		for (Integer loanId : loanIds) {
+			results.put(loanId, new LoanApprovalResult(loanId, Status.NOT_FOUND, null));
+		}
+		if (loanIds.isEmpty()) {
+			return new ArrayList<LoanApprovalResult>(results.values());
+		}
+
+		Map<String, Integer> loanIdsByProcessId = new LinkedHashMap<String, Integer>();
+		Map<Integer, LoanRequest> loansById = new HashMap<Integer, LoanRequest>();
+		List<LoanRequest> loanRequests = ibatisTemplate.queryForList(
+				"GoSmarter.loanRequestsByIds", loanIds);
+		for (LoanRequest loanRequest : loanRequests) {
+			loansById.put(loanRequest.getId(), loanRequest);
+			String processId = loanRequest.getProcessId();
+			if (processId == null || processId.isEmpty()) {
+				results.put(loanRequest.getId(), new LoanApprovalResult(
+						loanRequest.getId(), Status.NO_PROCESS, null));
+			} else {
+				loanIdsByProcessId.put(processId, loanRequest.getId());
+			}
+		}
+
+		List<String> processIds = new ArrayList<String>(loanIdsByProcessId.keySet());
+		for (int from = 0; from < processIds.size(); from += chunkSize) {
+			List<String> chunk = processIds.subList(from, Math.min(from + chunkSize, processIds.size()));
+			Map<String, String> taskIds;
+			try {
+				taskIds = approveInTransaction(chunk, userId, loanIdsByProcessId, loansById);
+			} catch (RuntimeException e) {
+				logger.warn("approval chunk failed, approving its loans one by one: " + e.getMessage());
+				taskIds = new LinkedHashMap<String, String>();
+				for (String processId : chunk) {
+					try {
+						taskIds.putAll(approveInTransaction(Collections.singletonList(processId), userId,
+								loanIdsByProcessId, loansById));
+					} catch (RuntimeException loanFailure) {
+						Integer loanId = loanIdsByProcessId.get(processId);
+						results.put(loanId, new LoanApprovalResult(loanId, Status.FAILED,
+								loanFailure.getMessage()));
+					}
+				}
+			}
+			for (Map.Entry<String, String> entry : taskIds.entrySet()) {
+				Integer loanId = loanIdsByProcessId.get(entry.getKey());
+				results.put(loanId, new LoanApprovalResult(loanId,
+						entry.getValue() == null ? Status.NO_TASK : Status.APPROVED, null));
+			}
+		}
+		return new ArrayList<LoanApprovalResult>(results.values());
+	}
+
+	/**
+	 * Completes the verify tasks of the processes and marks the loans whose
+	 * task was completed as approved, all or nothing.
+	 * 
+	 * @return the completed task id per process id, null where the process had
+	 *         no verify task
+	 */
+	private Map<String, String> approveInTransaction(final List<String> processIds, final String userId,
+			final Map<String, Integer> loanIdsByProcessId, final Map<Integer, LoanRequest> loansById) {
+		return new TransactionTemplate(transactionManager).execute(new TransactionCallback<Map<String, String>>() {
+			public Map<String, String> doInTransaction(TransactionStatus status) {
+				Map<String, String> taskIds = claimAndComplete(processIds, userId);
+				List<LoanRequest> approved = new ArrayList<LoanRequest>();
+				for (Map.Entry<String, String> entry : taskIds.entrySet()) {
+					if (entry.getValue() != null) {
+						approved.add(loansById.get(loanIdsByProcessId.get(entry.getKey())));
+					}
+				}
+				markApproved(approved);
+				return taskIds;
+			}
+		});
+	}
+
+	/**
+	 * A page of the "Verify loan request" tasks the user is a candidate for,
+	 * oldest first, with their loans.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<PendingApproval> pendingApprovals(String userId, int firstResult, int maxResults) {
+		List<Task> tasks = taskService.createTaskQuery().taskName(VERIFY_TASK_NAME)
+				.taskCandidateUser(userId).orderByTaskCreateTime().asc()
+				.listPage(firstResult, maxResults);
+		if (tasks.isEmpty()) {
+			return new ArrayList<PendingApproval>();
+		}
+
+		List<String> processIds = new ArrayList<String>(tasks.size());
+		for (Task task : tasks) {
+			processIds.add(task.getProcessInstanceId());
+		}
+		Map<String, LoanRequest> loansByProcessId = new HashMap<String, LoanRequest>();
+		for (LoanRequest loanRequest : (List<LoanRequest>) ibatisTemplate.queryForList(
+				"GoSmarter.loanRequestsByProcessIds", processIds)) {
+			loansByProcessId.put(loanRequest.getProcessId(), loanRequest);
+		}
+
+		List<PendingApproval> approvals = new ArrayList<PendingApproval>(tasks.size());
+		for (Task task : tasks) {
+			LoanRequest loanRequest = loansByProcessId.get(task.getProcessInstanceId());
+			approvals.add(new PendingApproval(task.getId(), task.getCreateTime(),
+					task.getProcessInstanceId(),
+					loanRequest == null ? null : loanRequest.getId(),
+					loanRequest == null ? null : loanRequest.getCustomerName(),
+					loanRequest == null ? null : loanRequest.getAmount()));
+		}
+		return approvals;
+	}
+
+	private void markApproved(List<LoanRequest> loanRequests) {
+		if (loanRequests.isEmpty()) {
+			return;
+		}
+		List<Integer> loanIds = new ArrayList<Integer>(loanRequests.size());
+		for (LoanRequest loanRequest : loanRequests) {
+			loanIds.add(loanRequest.getId());
+		}
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("status", LoanRequest.APPROVED);
+		parameters.put("ids", loanIds);
+		ibatisTemplate.update("GoSmarter.loanRequestStatusUpdate", parameters);
+		for (LoanRequest loanRequest : loanRequests) {
+			loanStatisticsService.moved(loanRequest, loanRequest.getStatus(), LoanRequest.APPROVED);
+			loanRequestCache.invalidate(loanRequest.getId());
+			loanRequestVersions.changed(loanRequest.getId());
+		}
+	}
+
+	private Map<String, String> claimAndComplete(List<String> processIds, String userId) {
+		return processEngineConfiguration.getCommandExecutorTxRequired().execute(
+				new ClaimAndCompleteTasksCmd(new ArrayList<String>(processIds), userId));
+	}
+}
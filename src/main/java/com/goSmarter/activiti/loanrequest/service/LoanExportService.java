@@ -0,0 +1,144 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+import org.springframework.stereotype.Service;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.ibatis.sqlmap.client.event.RowHandler;
+
+/**
+ * Streams every loan request as JSON or CSV. Rows go from the
+ * <code>loanRequestExport</code> result set (read with a fixed fetch size)
+ * through a {@link RowHandler} straight to the output, so memory use does
+ * not grow with the table and the first bytes leave before the last row is
+ * read. On one database the rows are ordered by id; with a
+ * <code>ShardedSqlMapClientTemplate</code> they come shard by shard, each
+ * shard's rows in id order.
+ */
+@Service
+public class LoanExportService {
+
+	/** Rows between explicit flushes, so a slow export still shows progress. */
+	private static final int flushInterval = 1000;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	@Autowired
+	SqlMapClientTemplate ibatisTemplate;
+
+	/** A JSON array of loan request objects. */
+	public long exportJson(OutputStream out) throws IOException {
+		final JsonGenerator json = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+		json.writeStartArray();
+		long rows = export(new RowWriter() {
+			public void write(LoanRequest loanRequest) throws IOException {
+				json.writeStartObject();
+				json.writeNumberField("id", loanRequest.getId());
+				json.writeStringField("customerName", loanRequest.getCustomerName());
+				if (loanRequest.getAmount() == null) {
+					json.writeNullField("amount");
+				} else {
+					json.writeNumberField("amount", loanRequest.getAmount());
+				}
+				json.writeStringField("processId", loanRequest.getProcessId());
+				json.writeStringField("status", loanRequest.getStatus());
+				json.writeEndObject();
+			}
+
+			public void flush() throws IOException {
+				json.flush();
+			}
+		});
+		json.writeEndArray();
+		json.close();
+		return rows;
+	}
+
+	/** <code>id,customerName,amount,processId,status</code> lines after a header. */
+	public long exportCsv(final Writer out) throws IOException {
+		out.write("id,customerName,amount,processId,status\n");
+		long rows = export(new RowWriter() {
+			public void write(LoanRequest loanRequest) throws IOException {
+				out.write(String.valueOf(loanRequest.getId()));
+				out.write(',');
+				out.write(csv(loanRequest.getCustomerName()));
+				out.write(',');
+				out.write(loanRequest.getAmount() == null ? "" : String.valueOf(loanRequest.getAmount()));
+				out.write(',');
+				out.write(csv(loanRequest.getProcessId()));
+				out.write(',');
+				out.write(csv(loanRequest.getStatus()));
+				out.write('\n');
+			}
+
+			public void flush() throws IOException {
+				out.flush();
+			}
+		});
+		out.flush();
+		return rows;
+	}
+
+	private long export(final RowWriter writer) throws IOException {
+		final long[] rows = new long[1];
+		try {
+			ibatisTemplate.queryWithRowHandler("GoSmarter.loanRequestExport", null, new RowHandler() {
+				public void handleRow(Object row) {
+					try {
+						writer.write((LoanRequest) row);
+						if (++rows[0] % flushInterval == 0) {
+							writer.flush();
+						}
+					} catch (IOException e) {
+						throw new ExportAbortedException(e);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// iBATIS may wrap what the row handler throws
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof ExportAbortedException) {
+					throw (IOException) cause.getCause();
+				}
+			}
+			throw e;
+		}
+		return rows[0];
+	}
+
+	static String csv(String value) {
+		if (value == null) {
+			return "";
+		}
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+				&& value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	private interface RowWriter {
+
+		void write(LoanRequest loanRequest) throws IOException;
+
+		void flush() throws IOException;
+	}
+
+	/** Carries a write failure, typically a client gone away, out of the row handler. */
+	private static class ExportAbortedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ExportAbortedException(IOException cause) {
+			super(cause);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.io.IOException;
+
+/**
+ * Streams loan records out of a bulk import payload one at a time, so an
+ * import never holds the whole file in memory.
+ */
+public interface LoanImportReader {
+
+	/**
+	 * @return the next record, or <code>null</code> at the end of the stream
+	 */
+	LoanImportRecord next() throws IOException;
+}
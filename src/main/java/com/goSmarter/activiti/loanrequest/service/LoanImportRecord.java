@@ -0,0 +1,73 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+
+/**
+ * One record read from a bulk import stream: either a parsed
+ * {@link LoanRequest} or the reason it could not be parsed.
+ */
+public class LoanImportRecord {
+
+	private final int index;
+
+	private final LoanRequest loanRequest;
+
+	private final String error;
+
+	private LoanImportRecord(int index, LoanRequest loanRequest, String error) {
+		this.index = index;
+		this.loanRequest = loanRequest;
+		this.error = error;
+	}
+
+	public static LoanImportRecord valid(int index, LoanRequest loanRequest) {
+		return new LoanImportRecord(index, loanRequest, null);
+	}
+
+	public static LoanImportRecord invalid(int index, String error) {
+		return new LoanImportRecord(index, null, error);
+	}
+
+	/**
+	 * Position of the record in the stream, starting at 1 (the line number for
+	 * CSV, the array element for JSON).
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public LoanRequest getLoanRequest() {
+		return loanRequest;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public boolean isValid() {
+		return error == null;
+	}
+
+	/**
+	 * Checks the fields every loan needs and turns the raw values into a
+	 * record.
+	 */
+	static LoanImportRecord parse(int index, String id, String customerName, String amount) {
+		LoanRequest loanRequest = new LoanRequest();
+		try {
+			loanRequest.setId(Integer.valueOf(id.trim()));
+		} catch (RuntimeException e) {
+			return invalid(index, "invalid id: " + id);
+		}
+		if (customerName == null || customerName.trim().length() == 0) {
+			return invalid(index, "missing customerName");
+		}
+		loanRequest.setCustomerName(customerName.trim());
+		try {
+			loanRequest.setAmount(Double.valueOf(amount.trim()));
+		} catch (RuntimeException e) {
+			return invalid(index, "invalid amount: " + amount);
+		}
+		return valid(index, loanRequest);
+	}
+}
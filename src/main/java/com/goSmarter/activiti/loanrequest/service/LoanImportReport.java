@@ -0,0 +1,125 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Outcome of a bulk import: totals, throughput per chunk and the records that
+ * could not be imported. Only the first {@link #maxListedFailures} failures
+ * are listed; {@link #getFailed()} always has the full count.
+ */
+public class LoanImportReport {
+
+	static final int maxListedFailures = 1000;
+
+	private int imported;
+
+	private int failed;
+
+	private long millis;
+
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+
+	private final List<Failure> failures = new ArrayList<Failure>();
+
+	void addChunk(Chunk chunk) {
+		chunks.add(chunk);
+		imported += chunk.getImported();
+	}
+
+	void addFailure(int index, Integer loanId, String message) {
+		failed++;
+		if (failures.size() < maxListedFailures) {
+			failures.add(new Failure(index, loanId, message));
+		}
+	}
+
+	void setMillis(long millis) {
+		this.millis = millis;
+	}
+
+	public int getImported() {
+		return imported;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public List<Chunk> getChunks() {
+		return chunks;
+	}
+
+	public List<Failure> getFailures() {
+		return failures;
+	}
+
+	public static class Chunk {
+
+		private final int number;
+
+		private final int imported;
+
+		private final int failed;
+
+		private final long millis;
+
+		Chunk(int number, int imported, int failed, long millis) {
+			this.number = number;
+			this.imported = imported;
+			this.failed = failed;
+			this.millis = millis;
+		}
+
+		public int getNumber() {
+			return number;
+		}
+
+		public int getImported() {
+			return imported;
+		}
+
+		public int getFailed() {
+			return failed;
+		}
+
+		public long getMillis() {
+			return millis;
+		}
+
+		public double getRecordsPerSecond() {
+			return millis == 0 ? imported * 1000.0 : imported * 1000.0 / millis;
+		}
+	}
+
+	public static class Failure {
+
+		private final int index;
+
+		private final Integer loanId;
+
+		private final String message;
+
+		Failure(int index, Integer loanId, String message) {
+			this.index = index;
+			this.loanId = loanId;
+			this.message = message;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public Integer getLoanId() {
+			return loanId;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.runtime.ProcessInstance;
+import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.goSmarter.activiti.loanrequest.cache.BoundedCache;
+import com.goSmarter.activiti.loanrequest.cache.LoanRequestVersions;
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.engine.ClaimAndCompleteTaskCmd;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+
+/**
+ * Imports loan requests in chunks. Each chunk starts its loan processes,
+ * completes their submit tasks and batch inserts the LOANREQUEST rows in one
+ * transaction. When a chunk fails it is retried record by record, so one bad
+ * record only costs itself and not the rest of the load.
+ *
+ * When LOANREQUEST has its own datasource the batch insert is not part of
+ * the engine transaction, so rows inserted before a failure are already
+ * committed while their processes roll back. A failed chunk therefore
+ * deletes the rows it wrote, matched by id and the rolled back process id so
+ * an existing loan with a clashing id is left alone, before it is retried.
+ */
+@Service
+public class LoanImportService {
+
+	private static Log logger = LogFactory.getLog(LoanImportService.class);
+
+	@Autowired
+	SqlMapClientTemplate ibatisTemplate;
+
+	@Autowired
+	RuntimeService runtimeService;
+
+	@Autowired
+	SpringProcessEngineConfiguration processEngineConfiguration;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	@Qualifier("loanRequestCache")
+	BoundedCache<Integer, LoanRequest> loanRequestCache;
+
+	@Autowired
+	LoanRequestVersions loanRequestVersions;
+
+	@Autowired
+	LoanStatisticsService loanStatisticsService;
+
+	@Value("${loanrequest.import.chunkSize:500}")
+	int chunkSize;
+
+	public LoanImportReport importLoans(LoanImportReader reader, String userId) throws IOException {
+		long start = System.currentTimeMillis();
+		LoanImportReport report = new LoanImportReport();
+		List<LoanImportRecord> chunk = new ArrayList<LoanImportRecord>(chunkSize);
+		int chunkNumber = 0;
+		LoanImportRecord record;
+		while ((record = reader.next()) != null) {
+			if (!record.isValid()) {
+				report.addFailure(record.getIndex(), null, record.getError());
+				continue;
+			}
+			chunk.add(record);
+			if (chunk.size() == chunkSize) {
+				importChunk(++chunkNumber, chunk, userId, report);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			importChunk(++chunkNumber, chunk, userId, report);
+		}
+		report.setMillis(System.currentTimeMillis() - start);
+		logger.info("imported " + report.getImported() + " loan requests, "
+				+ report.getFailed() + " failed, in " + report.getMillis() + " ms");
+		return report;
+	}
+
+	private void importChunk(int number, List<LoanImportRecord> records,
+			String userId, LoanImportReport report) {
+		long start = System.currentTimeMillis();
+		int imported = 0;
+		int failed = 0;
+		try {
+			importInTransaction(records, userId);
+			imported = records.size();
+		} catch (RuntimeException e) {
+			logger.warn("import chunk " + number + " failed, retrying its records one by one: " + e.getMessage());
+			for (LoanImportRecord record : records) {
+				try {
+					importInTransaction(Collections.singletonList(record), userId);
+					imported++;
+				} catch (RuntimeException recordFailure) {
+					failed++;
+					report.addFailure(record.getIndex(), record.getLoanRequest().getId(),
+							recordFailure.getMessage());
+				}
+			}
+		}
+		LoanImportReport.Chunk chunk = new LoanImportReport.Chunk(number, imported,
+				failed, System.currentTimeMillis() - start);
+		report.addChunk(chunk);
+		logger.debug("import chunk " + number + ": " + imported + " imported, " + failed
+				+ " failed, " + (long) chunk.getRecordsPerSecond() + " records/s");
+	}
+
+	private void importInTransaction(final List<LoanImportRecord> records, final String userId) {
+		final List<LoanRequest> loanRequests = new ArrayList<LoanRequest>(records.size());
+		try {
+			insertInTransaction(records, loanRequests, userId);
+		} catch (RuntimeException e) {
+			deleteImported(loanRequests);
+			throw e;
+		}
+	}
+
+	private void insertInTransaction(final List<LoanImportRecord> records,
+			final List<LoanRequest> loanRequests, final String userId) {
+		new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				for (LoanImportRecord record : records) {
+					LoanRequest loanRequest = record.getLoanRequest();
+					ProcessInstance processInstance = runtimeService
+							.startProcessInstanceByKey("loanProcess", String.valueOf(loanRequest.getId()));
+					processEngineConfiguration.getCommandExecutorTxRequired().execute(
+							new ClaimAndCompleteTaskCmd(processInstance.getId(), userId));
+					loanRequest.setProcessId(processInstance.getId());
+					loanRequest.setStatus(LoanRequest.AWAITING_APPROVAL);
+					loanRequests.add(loanRequest);
+				}
+				ibatisTemplate.execute(new SqlMapClientCallback() {
+					public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+						executor.startBatch();
+						for (LoanRequest loanRequest : loanRequests) {
+							executor.insert("GoSmarter.loanRequestInsert", loanRequest);
+						}
+						return executor.executeBatch();
+					}
+				});
+				loanStatisticsService.added(loanRequests);
+				for (LoanRequest loanRequest : loanRequests) {
+					loanRequestCache.invalidate(loanRequest.getId());
+					loanRequestVersions.changed(loanRequest.getId());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Deletes whatever the failed attempt left in LOANREQUEST; a no-op when
+	 * the insert rolled back with the engine transaction.
+	 */
+	private void deleteImported(final List<LoanRequest> loanRequests) {
+		if (loanRequests.isEmpty()) {
+			return;
+		}
+		try {
+			ibatisTemplate.execute(new SqlMapClientCallback() {
+				public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+					executor.startBatch();
+					for (LoanRequest loanRequest : loanRequests) {
+						executor.delete("GoSmarter.loanRequestDeleteImported", loanRequest);
+					}
+					return executor.executeBatch();
+				}
+			});
+		} catch (RuntimeException e) {
+			logger.error("could not delete the rows of a failed import chunk", e);
+		}
+		for (LoanRequest loanRequest : loanRequests) {
+			loanRequestCache.invalidate(loanRequest.getId());
+		}
+	}
+}
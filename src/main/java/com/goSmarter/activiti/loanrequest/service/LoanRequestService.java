@@ -0,0 +1,249 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.runtime.ProcessInstance;
+import org.activiti.engine.task.Task;
+import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.goSmarter.activiti.loanrequest.cache.BoundedCache;
+import com.goSmarter.activiti.loanrequest.cache.LoanRequestVersions;
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.engine.ClaimAndCompleteTaskCmd;
+import com.goSmarter.activiti.loanrequest.engine.LoanWorkflowJobHandler;
+import com.goSmarter.activiti.loanrequest.engine.ScheduleJobCmd;
+
+/**
+ * The create, update and approve flows of a loan request. Each runs in one
+ * Spring managed transaction, which the process engine joins. When
+ * LOANREQUEST lives on the engine's datasource (see
+ * <code>single-datasource-config.xml</code>) the iBATIS statements join it
+ * too, and a request costs a single commit. With separate datasources a
+ * failed insert still rolls back the process instance started for it.
+ * 
+ * The asynchronous variants only record the request and leave a message job
+ * for the engine's job executor, which runs {@link #submit(Integer, String)}
+ * or {@link #approve(Integer, boolean, String)} later. The loan request's
+ * status tells a client how far it got.
+ * 
+ * Loans the {@link AutoApprovalPolicy} accepts end their process right after
+ * the submit task and are recorded as {@link LoanRequest#APPROVED}.
+ */
+@Service
+public class LoanRequestService {
+
+	private static Log logger = LogFactory.getLog(LoanRequestService.class);
+
+	@Autowired
+	SqlMapClientTemplate ibatisTemplate;
+
+	@Autowired
+	RuntimeService runtimeService;
+
+	@Autowired
+	TaskService taskService;
+
+	@Autowired
+	SpringProcessEngineConfiguration processEngineConfiguration;
+
+	@Autowired
+	@Qualifier("loanRequestCache")
+	BoundedCache<Integer, LoanRequest> loanRequestCache;
+
+	@Autowired
+	LoanRequestVersions loanRequestVersions;
+
+	@Autowired
+	LoanStatisticsService loanStatisticsService;
+
+	@Autowired
+	AutoApprovalPolicy autoApprovalPolicy;
+
+	/**
+	 * Read-through lookup of a loan request. Callers must not modify the
+	 * returned instance, it may be shared through the cache.
+	 */
+	public LoanRequest findLoanRequest(Integer id) {
+		LoanRequest loanRequest = loanRequestCache.get(id);
+		if (loanRequest == null) {
+			long generation = loanRequestCache.generation();
+			loanRequest = (LoanRequest) ibatisTemplate.queryForObject("GoSmarter.loanRequestDetails", id);
+			if (loanRequest != null) {
+				loanRequestCache.putIfUnchanged(id, loanRequest, generation);
+			}
+		}
+		return loanRequest;
+	}
+
+	/**
+	 * Inserts the loan request, and when the user may submit it, starts its
+	 * process and completes the submit task.
+	 */
+	@Transactional
+	public void create(LoanRequest loanRequest, boolean submitter, String userId) {
+		String processId = "";
+		String status = LoanRequest.SUBMITTED;
+		if (submitter) {
+			processId = startProcess(loanRequest, userId);
+			status = submittedStatus(processId);
+		}
+		loanRequest.setProcessId(processId);
+		loanRequest.setStatus(status);
+		ibatisTemplate.insert("GoSmarter.loanRequestInsert", loanRequest);
+		loanStatisticsService.added(loanRequest);
+		loanRequestCache.invalidate(loanRequest.getId());
+		loanRequestVersions.changed(loanRequest.getId());
+	}
+
+	/**
+	 * Inserts the loan request with status {@link LoanRequest#SUBMITTED} and,
+	 * when the user may submit it, schedules the process start on the job
+	 * executor.
+	 */
+	@Transactional
+	public void createAsync(LoanRequest loanRequest, boolean submitter, String userId) {
+		loanRequest.setProcessId("");
+		loanRequest.setStatus(LoanRequest.SUBMITTED);
+		ibatisTemplate.insert("GoSmarter.loanRequestInsert", loanRequest);
+		loanStatisticsService.added(loanRequest);
+		loanRequestCache.invalidate(loanRequest.getId());
+		loanRequestVersions.changed(loanRequest.getId());
+		if (submitter) {
+			schedule(LoanWorkflowJobHandler.submit(loanRequest.getId(), userId));
+		}
+	}
+
+	/**
+	 * Starts the process of a recorded loan request and completes its submit
+	 * task. Does nothing unless the loan request is still
+	 * {@link LoanRequest#SUBMITTED}, so a retried job does not start a second
+	 * process.
+	 */
+	@Transactional
+	public void submit(Integer id, String userId) {
+		LoanRequest loanRequest = (LoanRequest) ibatisTemplate.queryForObject("GoSmarter.loanRequestDetails", id);
+		if (loanRequest == null || !LoanRequest.SUBMITTED.equals(loanRequest.getStatus())) {
+			return;
+		}
+		loanRequest.setProcessId(startProcess(loanRequest, userId));
+		loanRequest.setStatus(submittedStatus(loanRequest.getProcessId()));
+		ibatisTemplate.update("GoSmarter.loanRequestProcessUpdate", loanRequest);
+		loanStatisticsService.moved(loanRequest, LoanRequest.SUBMITTED, loanRequest.getStatus());
+		loanRequestCache.invalidate(id);
+		loanRequestVersions.changed(id);
+	}
+
+	/**
+	 * Updates the customer name and amount. The stored loan request is read
+	 * first, so the statistics can move its status's total by the difference.
+	 */
+	@Transactional
+	public void update(LoanRequest loanRequest) {
+		LoanRequest before = (LoanRequest) ibatisTemplate.queryForObject("GoSmarter.loanRequestDetails",
+				loanRequest.getId());
+		if (ibatisTemplate.update("GoSmarter.loanRequestUpdate", loanRequest) > 0 && before != null) {
+			loanStatisticsService.amountChanged(before, loanRequest.getAmount());
+		}
+		loanRequestCache.invalidate(loanRequest.getId());
+		loanRequestVersions.changed(loanRequest.getId());
+	}
+
+	/**
+	 * Claims and completes the verify task of the loan request when the user
+	 * may approve it.
+	 */
+	@Transactional
+	public void approve(Integer id, boolean approver, String userId) {
+		LoanRequest loanRequest = findLoanRequest(id);
+
+		logger.debug("in the approveProcess ");
+		if (loanRequest != null && hasProcess(loanRequest) && approver) {
+			if (claimAndComplete(loanRequest.getProcessId(), userId) != null) {
+				Map<String, Object> parameters = new HashMap<String, Object>();
+				parameters.put("status", LoanRequest.APPROVED);
+				parameters.put("ids", Collections.singletonList(id));
+				ibatisTemplate.update("GoSmarter.loanRequestStatusUpdate", parameters);
+				loanStatisticsService.moved(loanRequest, loanRequest.getStatus(), LoanRequest.APPROVED);
+			}
+			loanRequestCache.invalidate(id);
+			loanRequestVersions.changed(id);
+		}
+	}
+
+	/**
+	 * Schedules the approval of the loan request on the job executor when the
+	 * user may approve it.
+	 */
+	@Transactional
+	public void approveAsync(Integer id, boolean approver, String userId) {
+		if (approver) {
+			schedule(LoanWorkflowJobHandler.approve(id, userId));
+		}
+	}
+
+	private boolean hasProcess(LoanRequest loanRequest) {
+		return loanRequest.getProcessId() != null && !loanRequest.getProcessId().isEmpty();
+	}
+
+	private void schedule(String configuration) {
+		String jobId = processEngineConfiguration.getCommandExecutorTxRequired()
+				.execute(new ScheduleJobCmd(LoanWorkflowJobHandler.TYPE, configuration));
+		logger.debug("scheduled " + configuration + " job=" + jobId);
+	}
+
+	/**
+	 * The open task of the loan request's process, found through the loan id
+	 * as business key, or null when the process has ended or never started.
+	 */
+	public Task findOpenTask(Integer id) {
+		return taskService.createTaskQuery()
+				.processInstanceBusinessKey(String.valueOf(id)).singleResult();
+	}
+
+	/**
+	 * Starts the loanProcess with the loan id as business key, completes its
+	 * submit task, and returns the process instance id.
+	 */
+	private String startProcess(LoanRequest loanRequest, String userId) {
+		logger.debug("in the startProcess ");
+		ProcessInstance processInstance = runtimeService.startProcessInstanceByKey("loanProcess",
+				String.valueOf(loanRequest.getId()), autoApprovalPolicy.variables(loanRequest));
+		logger.debug("startProcess processInstance Id="
+				+ processInstance.getId());
+
+		claimAndComplete(processInstance.getId(), userId);
+		return processInstance.getId();
+	}
+
+	/**
+	 * {@link LoanRequest#APPROVED} when the process ended at the auto
+	 * approval gateway, {@link LoanRequest#AWAITING_APPROVAL} otherwise. Only
+	 * asks the engine while auto approval is enabled.
+	 */
+	private String submittedStatus(String processInstanceId) {
+		if (autoApprovalPolicy.isEnabled() && runtimeService.createProcessInstanceQuery()
+				.processInstanceId(processInstanceId).count() == 0) {
+			return LoanRequest.APPROVED;
+		}
+		return LoanRequest.AWAITING_APPROVAL;
+	}
+
+	private String claimAndComplete(String processInstanceId, String userId) {
+		String taskId = processEngineConfiguration.getCommandExecutorTxRequired()
+				.execute(new ClaimAndCompleteTaskCmd(processInstanceId, userId));
+		logger.debug("claimAndComplete processInstance Id=" + processInstanceId
+				+ " task=" + taskId);
+		return taskId;
+	}
+}
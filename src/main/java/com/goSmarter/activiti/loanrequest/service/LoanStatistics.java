@@ -0,0 +1,33 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.math.BigDecimal;
+
+/**
+ * How many loan requests are in one status, and their total amount.
+ */
+public class LoanStatistics {
+
+	private final String status;
+
+	private final long loans;
+
+	private final BigDecimal amount;
+
+	LoanStatistics(String status, long loans, BigDecimal amount) {
+		this.status = status;
+		this.loans = loans;
+		this.amount = amount;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public long getLoans() {
+		return loans;
+	}
+
+	public BigDecimal getAmount() {
+		return amount;
+	}
+}
@@ -0,0 +1,329 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+
+/**
+ * Loan counts and amounts per status, kept in LOANSTATS next to LOANREQUEST.
+ * The services call in here with every insert, amount change and status
+ * change, through the same template, so on a shared datasource the counters
+ * commit or roll back with the loan. Each status has up to
+ * <code>stripes</code> rows, picked by loan id, so concurrent writers do not
+ * all wait on one row; reading the totals sums those few rows whatever the
+ * size of LOANREQUEST.
+ *
+ * Every <code>reconcileSeconds</code> the totals are recounted from
+ * LOANREQUEST with one GROUP BY. A difference is corrected only when the next
+ * recount finds exactly the same difference again, so writes that commit
+ * between the two reads are not mistaken for drift. Every node runs its own
+ * reconciler, so a correction locks the status's first stripe row and
+ * recounts once more under that lock: a node that finds the drift already
+ * corrected by another leaves the counters alone.
+ */
+@Service
+@ManagedResource
+public class LoanStatisticsService {
+
+	private static Log logger = LogFactory.getLog(LoanStatisticsService.class);
+
+	private static final String[] statuses = { LoanRequest.SUBMITTED, LoanRequest.AWAITING_APPROVAL,
+			LoanRequest.APPROVED };
+
+	@Autowired
+	SqlMapClientTemplate ibatisTemplate;
+
+	@Value("${loanrequest.stats.stripes:8}")
+	int stripes = 8;
+
+	@Value("${loanrequest.stats.reconcileSeconds:600}")
+	long reconcileSeconds = 600;
+
+	private ScheduledExecutorService reconciler;
+
+	private TransactionTemplate correction;
+
+	private Map<String, Totals> lastDrift = new HashMap<String, Totals>();
+
+	private final AtomicLong reconciliations = new AtomicLong();
+
+	private final AtomicLong corrections = new AtomicLong();
+
+	@PostConstruct
+	public void start() {
+		if (reconcileSeconds <= 0) {
+			return;
+		}
+		reconciler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "loan-statistics-reconciler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reconciler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					reconcile();
+				} catch (RuntimeException e) {
+					logger.warn("loan statistics reconciliation failed", e);
+				}
+			}
+		}, reconcileSeconds, reconcileSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (reconciler != null) {
+			reconciler.shutdownNow();
+		}
+	}
+
+	/** Counts a new loan request in its status. */
+	public void added(LoanRequest loanRequest) {
+		add(loanRequest.getStatus(), loanRequest.getId(), 1, amount(loanRequest.getAmount()));
+	}
+
+	/** Counts new loan requests, with one statement per status and stripe. */
+	public void added(List<LoanRequest> loanRequests) {
+		Map<String, Totals> byStripe = new LinkedHashMap<String, Totals>();
+		Map<String, LoanRequest> firstInStripe = new HashMap<String, LoanRequest>();
+		for (LoanRequest loanRequest : loanRequests) {
+			String key = loanRequest.getStatus() + "/" + stripe(loanRequest.getId());
+			if (!byStripe.containsKey(key)) {
+				byStripe.put(key, new Totals());
+				firstInStripe.put(key, loanRequest);
+			}
+			byStripe.get(key).add(1, amount(loanRequest.getAmount()));
+		}
+		for (Map.Entry<String, Totals> entry : byStripe.entrySet()) {
+			LoanRequest first = firstInStripe.get(entry.getKey());
+			add(first.getStatus(), first.getId(), entry.getValue().loans, entry.getValue().amount);
+		}
+	}
+
+	/** Moves a loan request, with its amount, from one status to another. */
+	public void moved(LoanRequest loanRequest, String from, String to) {
+		if (from != null && from.equals(to)) {
+			return;
+		}
+		BigDecimal amount = amount(loanRequest.getAmount());
+		add(from, loanRequest.getId(), -1, amount.negate());
+		add(to, loanRequest.getId(), 1, amount);
+	}
+
+	/** Adjusts the total of the loan request's status to its new amount. */
+	public void amountChanged(LoanRequest before, Double amount) {
+		add(before.getStatus(), before.getId(), 0, amount(amount).subtract(amount(before.getAmount())));
+	}
+
+	/** The counts and amounts of every status, from the counters. */
+	public List<LoanStatistics> statistics() {
+		Map<String, Totals> totals = totals("GoSmarter.loanStatsTotals");
+		List<LoanStatistics> statistics = new ArrayList<LoanStatistics>(totals.size());
+		for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+			statistics.add(new LoanStatistics(entry.getKey(), entry.getValue().loans, entry.getValue().amount));
+		}
+		return statistics;
+	}
+
+	/**
+	 * Recounts LOANREQUEST and corrects the counters where they differ by the
+	 * same amount as on the previous recount.
+	 */
+	@ManagedOperation
+	public synchronized void reconcile() {
+		Map<String, Totals> unconfirmed = new HashMap<String, Totals>();
+		for (Map.Entry<String, Totals> entry : drift().entrySet()) {
+			if (!entry.getValue().equals(lastDrift.get(entry.getKey()))) {
+				unconfirmed.put(entry.getKey(), entry.getValue());
+			} else if (correct(entry.getKey(), entry.getValue().loans, entry.getValue().amount)) {
+				logger.warn("corrected loan statistics for " + entry.getKey() + " by " + entry.getValue().loans
+						+ " loans and " + entry.getValue().amount);
+				corrections.incrementAndGet();
+			}
+		}
+		lastDrift = unconfirmed;
+		reconciliations.incrementAndGet();
+	}
+
+	/**
+	 * Adds the confirmed drift to the status's counters, in one transaction
+	 * that holds the lock on the status's first stripe row, and only when a
+	 * recount under that lock still finds exactly this drift. Concurrent
+	 * corrections of the same status, from this or other nodes, queue on the
+	 * lock and find nothing left to correct. The lock carries the routing key
+	 * 0, as the correction itself does, so on a
+	 * {@link com.goSmarter.activiti.loanrequest.datasource.ShardedSqlMapClientTemplate}
+	 * it runs on shard 0, the transaction's datasource, on this thread.
+	 * 
+	 * @return whether the counters were corrected
+	 */
+	boolean correct(final String status, final long loans, final BigDecimal amount) {
+		if (correction == null) {
+			correction = new TransactionTemplate(new DataSourceTransactionManager(ibatisTemplate.getDataSource()));
+		}
+		return correction.execute(new TransactionCallback<Boolean>() {
+			public Boolean doInTransaction(TransactionStatus transactionStatus) {
+				Map<String, Object> parameters = new HashMap<String, Object>();
+				parameters.put("id", 0);
+				parameters.put("status", status);
+				parameters.put("stripe", stripe(0));
+				parameters.put("loans", 0L);
+				parameters.put("amount", BigDecimal.ZERO);
+				if (ibatisTemplate.update("GoSmarter.loanStatsLock", parameters) == 0) {
+					try {
+						ibatisTemplate.insert("GoSmarter.loanStatsInsert", parameters);
+					} catch (DataIntegrityViolationException e) {
+						// another node created the row first
+						ibatisTemplate.update("GoSmarter.loanStatsLock", parameters);
+					}
+				}
+				Totals expected = new Totals();
+				expected.add(loans, amount);
+				if (!expected.equals(drift().get(status))) {
+					return false;
+				}
+				add(status, 0, loans, amount);
+				return true;
+			}
+		});
+	}
+
+	/** Recount minus counters, for every status where they differ. */
+	private Map<String, Totals> drift() {
+		Map<String, Totals> counters = totals("GoSmarter.loanStatsTotals");
+		Map<String, Totals> recount = totals("GoSmarter.loanStatsRecount");
+		Map<String, Totals> drift = new HashMap<String, Totals>();
+		for (Map.Entry<String, Totals> entry : recount.entrySet()) {
+			Totals counted = counters.get(entry.getKey());
+			Totals difference = new Totals();
+			difference.add(entry.getValue().loans, entry.getValue().amount);
+			if (counted != null) {
+				difference.add(-counted.loans, counted.amount.negate());
+			}
+			if (difference.loans != 0 || difference.amount.signum() != 0) {
+				drift.put(entry.getKey(), difference);
+			}
+		}
+		for (Map.Entry<String, Totals> entry : counters.entrySet()) {
+			if (!recount.containsKey(entry.getKey())
+					&& (entry.getValue().loans != 0 || entry.getValue().amount.signum() != 0)) {
+				Totals difference = new Totals();
+				difference.add(-entry.getValue().loans, entry.getValue().amount.negate());
+				drift.put(entry.getKey(), difference);
+			}
+		}
+		return drift;
+	}
+
+	@ManagedAttribute
+	public long getReconciliations() {
+		return reconciliations.get();
+	}
+
+	@ManagedAttribute
+	public long getCorrections() {
+		return corrections.get();
+	}
+
+	@ManagedAttribute
+	public int getStripes() {
+		return stripes;
+	}
+
+	private void add(String status, Integer id, long loans, BigDecimal amount) {
+		if (status == null || (loans == 0 && amount.signum() == 0)) {
+			return;
+		}
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("id", id);
+		parameters.put("status", status);
+		parameters.put("stripe", stripe(id));
+		parameters.put("loans", loans);
+		parameters.put("amount", amount);
+		if (ibatisTemplate.update("GoSmarter.loanStatsAdd", parameters) == 0) {
+			try {
+				ibatisTemplate.insert("GoSmarter.loanStatsInsert", parameters);
+			} catch (DataIntegrityViolationException e) {
+				// another writer created the row first
+				ibatisTemplate.update("GoSmarter.loanStatsAdd", parameters);
+			}
+		}
+	}
+
+	private int stripe(Integer id) {
+		return (id.intValue() & 0x7fffffff) % stripes;
+	}
+
+	/** Sums the rows of a statement by status, with every known status present. */
+	@SuppressWarnings("unchecked")
+	private Map<String, Totals> totals(String statementName) {
+		Map<String, Totals> totals = new LinkedHashMap<String, Totals>();
+		for (String status : statuses) {
+			totals.put(status, new Totals());
+		}
+		for (Map<String, Object> row : (List<Map<String, Object>>) ibatisTemplate.queryForList(statementName)) {
+			String status = (String) row.get("status");
+			if (!totals.containsKey(status)) {
+				totals.put(status, new Totals());
+			}
+			totals.get(status).add(((Number) row.get("loans")).longValue(),
+					row.get("amount") == null ? BigDecimal.ZERO : new BigDecimal(row.get("amount").toString()));
+		}
+		return totals;
+	}
+
+	private static BigDecimal amount(Double amount) {
+		return amount == null ? BigDecimal.ZERO : BigDecimal.valueOf(amount.doubleValue());
+	}
+
+	private static class Totals {
+
+		long loans;
+
+		BigDecimal amount = BigDecimal.ZERO;
+
+		void add(long loans, BigDecimal amount) {
+			this.loans += loans;
+			this.amount = this.amount.add(amount);
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Totals && ((Totals) other).loans == loans
+					&& ((Totals) other).amount.compareTo(amount) == 0;
+		}
+
+		public int hashCode() {
+			return (int) loans;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * An admission gate for the database bound work of create, update and
+ * approve. At most <code>maxConcurrent</code> units of work run at once; a
+ * request that finds no free slot within <code>waitMillis</code> is rejected
+ * with {@link LoanWorkRejectedException}, answered with 503, instead of
+ * queueing on the connection pool.
+ *
+ * The work runs on the calling container thread, so it keeps the caller's
+ * security context and transaction. Handing the thread back to the container
+ * while the work runs needs Servlet 3 async request processing, which the
+ * Spring 3.1 MVC this application is built on does not offer; that is out of
+ * scope here.
+ */
+@Component
+@ManagedResource
+public class LoanWorkExecutor {
+
+	@Value("${loanrequest.work.maxConcurrent:20}")
+	int maxConcurrent = 20;
+
+	@Value("${loanrequest.work.waitMillis:100}")
+	long waitMillis = 100;
+
+	private Semaphore permits;
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	@PostConstruct
+	public void start() {
+		permits = new Semaphore(maxConcurrent, true);
+	}
+
+	/**
+	 * Runs the work once a slot is free.
+	 *
+	 * @throws LoanWorkRejectedException when no slot frees up within
+	 *             <code>waitMillis</code>
+	 */
+	public void run(Runnable work) {
+		boolean admitted;
+		try {
+			admitted = permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			admitted = false;
+		}
+		if (!admitted) {
+			rejected.incrementAndGet();
+			throw new LoanWorkRejectedException("too many loan requests in progress, try again later");
+		}
+		try {
+			work.run();
+		} finally {
+			permits.release();
+		}
+	}
+
+	@ManagedAttribute
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	@ManagedAttribute
+	public int getRunning() {
+		return maxConcurrent - permits.availablePermits();
+	}
+
+	@ManagedAttribute
+	public long getRejected() {
+		return rejected.get();
+	}
+}
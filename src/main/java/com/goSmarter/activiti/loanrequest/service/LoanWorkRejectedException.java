@@ -0,0 +1,18 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when {@link LoanWorkExecutor} is saturated; answered with 503 so
+ * clients back off and retry.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class LoanWorkRejectedException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public LoanWorkRejectedException(String message) {
+		super(message);
+	}
+}
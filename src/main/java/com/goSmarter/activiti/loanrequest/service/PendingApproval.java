@@ -0,0 +1,57 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import java.util.Date;
+
+/**
+ * An open "Verify loan request" task together with the loan it is about.
+ * The loan fields are null when no loan request refers to the task's
+ * process instance.
+ */
+public class PendingApproval {
+
+	private final String taskId;
+
+	private final Date created;
+
+	private final String processInstanceId;
+
+	private final Integer loanId;
+
+	private final String customerName;
+
+	private final Double amount;
+
+	PendingApproval(String taskId, Date created, String processInstanceId,
+			Integer loanId, String customerName, Double amount) {
+		this.taskId = taskId;
+		this.created = created;
+		this.processInstanceId = processInstanceId;
+		this.loanId = loanId;
+		this.customerName = customerName;
+		this.amount = amount;
+	}
+
+	public String getTaskId() {
+		return taskId;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public String getProcessInstanceId() {
+		return processInstanceId;
+	}
+
+	public Integer getLoanId() {
+		return loanId;
+	}
+
+	public String getCustomerName() {
+		return customerName;
+	}
+
+	public Double getAmount() {
+		return amount;
+	}
+}
@@ -1,23 +1,22 @@
 package com.goSmarter.activiti.loanrequest.web;
 
-import static org.junit.Assert.assertNotNull;
-
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
-import org.activiti.engine.ProcessEngine;
-import org.activiti.engine.RuntimeService;
-import org.activiti.engine.TaskService;
-import org.activiti.engine.runtime.ProcessInstance;
 import org.activiti.engine.task.Task;
-import org.activiti.spring.SpringProcessEngineConfiguration;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.orm.ibatis.SqlMapClientTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.stereotype.Controller;
@@ -26,22 +25,69 @@ import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
+import com.goSmarter.activiti.loanrequest.cache.LoanRequestVersions;
+import com.goSmarter.activiti.loanrequest.cache.LoanRequestVersions.Version;
 import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.engine.JobExecutorMonitor;
+import com.goSmarter.activiti.loanrequest.service.CsvLoanImportReader;
+import com.goSmarter.activiti.loanrequest.service.JsonLoanImportReader;
+import com.goSmarter.activiti.loanrequest.service.LoanApprovalResult;
+import com.goSmarter.activiti.loanrequest.service.LoanApprovalService;
+import com.goSmarter.activiti.loanrequest.service.LoanExportService;
+import com.goSmarter.activiti.loanrequest.service.LoanImportReport;
+import com.goSmarter.activiti.loanrequest.service.LoanImportService;
+import com.goSmarter.activiti.loanrequest.service.LoanRequestService;
+import com.goSmarter.activiti.loanrequest.service.LoanStatistics;
+import com.goSmarter.activiti.loanrequest.service.LoanStatisticsService;
+import com.goSmarter.activiti.loanrequest.service.LoanWorkExecutor;
+import com.goSmarter.activiti.loanrequest.service.PendingApproval;
 
 @Controller
 public class LoanRequestController {
 
 	@Autowired
-	SqlMapClientTemplate ibatisTemplate;
+	LoanRequestService loanRequestService;
+
+	@Autowired
+	LoanImportService loanImportService;
+
+	@Autowired
+	LoanApprovalService loanApprovalService;
+
+	@Autowired
+	JobExecutorMonitor jobExecutorMonitor;
+
+	@Autowired
+	LoanWorkExecutor loanWorkExecutor;
+
+	@Autowired
+	LoanExportService loanExportService;
+
+	@Autowired
+	LoanRequestVersions loanRequestVersions;
 
 	@Autowired
-	SpringProcessEngineConfiguration processEngineConfiguration;
+	LoanStatisticsService loanStatisticsService;
+
+	/** Hand create and approve to the job executor and answer right away. */
+	@Value("${loanrequest.async.enabled:false}")
+	boolean async;
+
+	/** Admit create, update and approve through the bounded LoanWorkExecutor. */
+	@Value("${loanrequest.work.enabled:false}")
+	boolean workExecutorEnabled;
 
 	private static final String submitterRole = "accountancy";
     private static final String approverRole = "management";
     private static final String submitTaskName = "Submit loan request";
     private static final String approveTaskName = "Verify loan request";
+    private static final int defaultPageSize = 25;
+    private static final int maxPageSize = 100;
+    private static final int maxApprovalBatchSize = 1000;
+    private static final int defaultInboxSize = 50;
 
     private static Log logger = LogFactory.getLog(LoanRequestController.class);
 
@@ -49,123 +95,258 @@ public class LoanRequestController {
 	}
 
 	@RequestMapping(value = "loanrequests/list")
-	public String list(Model model) {
-		assertNotNull(ibatisTemplate);
-
-		List<LoanRequest> loanRequests = (List<LoanRequest>) ibatisTemplate.queryForObject("GoSmarter.loanRequestList");
-
+	public String list(@RequestParam(value = "afterId", required = false) Integer afterId,
+			@RequestParam(value = "page", required = false) Integer page,
+			@RequestParam(value = "size", required = false) Integer size,
+			Model model, HttpServletRequest request, HttpServletResponse response) {
+		if (notModified(loanRequestVersions.table(), request, response)) {
+			return null;
+		}
+		int sizeNo = pageSize(size);
+		List<LoanRequest> loanRequests;
+		if (page != null) {
+			// offset paging for the Roo pagination tag; needs a count for maxPages
+			int firstResult = (Math.max(page.intValue(), 1) - 1) * sizeNo;
+			loanRequests = LoanRequest.findLoanRequestEntries(firstResult, sizeNo);
+			float nrOfPages = (float) LoanRequest.countLoanRequests() / sizeNo;
+			model.addAttribute("maxPages", (int) ((nrOfPages > (int) nrOfPages || nrOfPages == 0.0) ? nrOfPages + 1 : nrOfPages));
+		} else {
+			loanRequests = LoanRequest.findLoanRequestEntriesAfter(afterId, sizeNo);
+		}
+		if (loanRequests.size() == sizeNo) {
+			model.addAttribute("nextAfterId", loanRequests.get(sizeNo - 1).getId());
+		}
+		model.addAttribute("size", sizeNo);
 		model.addAttribute("loanRequests", loanRequests);
 		return "view";
 	}
 
+	/**
+	 * Loan requests whose customer name starts with <code>q</code>, ignoring
+	 * case, ordered by name. Pass the returned <code>nextAfterKey</code> and
+	 * <code>nextAfterId</code> as <code>afterKey</code> and <code>afterId</code>
+	 * for the next page; both are null on the last page.
+	 */
+	@RequestMapping(value = "loanrequests/search", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> search(@RequestParam(value = "q", required = false) String q,
+			@RequestParam(value = "afterKey", required = false) String afterKey,
+			@RequestParam(value = "afterId", required = false) Integer afterId,
+			@RequestParam(value = "size", required = false) Integer size) {
+		int sizeNo = pageSize(size);
+		List<LoanRequest> loanRequests = LoanRequest.findLoanRequestsByCustomerNamePrefix(q, afterKey, afterId,
+				sizeNo);
+		LoanRequest last = loanRequests.size() == sizeNo ? loanRequests.get(sizeNo - 1) : null;
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("loanRequests", loanRequests);
+		result.put("nextAfterKey", last == null ? null : last.getCustomerNameKey());
+		result.put("nextAfterId", last == null ? null : last.getId());
+		return result;
+	}
+
+	/**
+	 * Sets the validators for a view and answers 304 when the client's copy is
+	 * current. Last-Modified is only sent for changes made in an earlier
+	 * second; a later change within the same second could not be told apart
+	 * at If-Modified-Since precision. Clients should prefer the ETag.
+	 */
+	private static boolean notModified(Version version, HttpServletRequest request,
+			HttpServletResponse response) {
+		response.setHeader("Cache-Control", "no-cache");
+		response.setHeader("ETag", version.getEtag());
+		boolean settled = version.getLastModified() / 1000 < System.currentTimeMillis() / 1000;
+		if (settled) {
+			response.setDateHeader("Last-Modified", version.getLastModified());
+		}
+		boolean notModified;
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			notModified = ifNoneMatch.equals("*") || ifNoneMatch.contains(version.getEtag());
+		} else {
+			notModified = settled && request.getDateHeader("If-Modified-Since") >= version.getLastModified() / 1000 * 1000;
+		}
+		if (notModified) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		}
+		return notModified;
+	}
+
+	private static int pageSize(Integer size) {
+		if (size == null || size.intValue() < 1) {
+			return defaultPageSize;
+		}
+		return Math.min(size.intValue(), maxPageSize);
+	}
+
+	/**
+	 * Every loan request, streamed as JSON or, with <code>format=csv</code>,
+	 * as CSV.
+	 */
+	@RequestMapping(value = "loanrequests/export", method = RequestMethod.GET)
+	public void export(@RequestParam(value = "format", required = false) String format,
+			HttpServletResponse response) throws IOException {
+		response.setCharacterEncoding("UTF-8");
+		if ("csv".equals(format)) {
+			response.setContentType("text/csv");
+			response.setHeader("Content-Disposition", "attachment; filename=loanrequests.csv");
+			loanExportService.exportCsv(response.getWriter());
+		} else {
+			response.setContentType("application/json");
+			loanExportService.exportJson(response.getOutputStream());
+		}
+	}
+
 	@RequestMapping(value = "loanrequests/show/{id}", produces = "text/html")
-	public String show(@PathVariable("id") Integer id, Model model) {
+	public String show(@PathVariable("id") Integer id, Model model,
+			HttpServletRequest request, HttpServletResponse response) {
+		if (notModified(loanRequestVersions.loan(id), request, response)) {
+			return null;
+		}
 		
-		LoanRequest loanRequest = (LoanRequest) ibatisTemplate.queryForObject("GoSmarter.loanRequestDetails", id);
+		LoanRequest loanRequest = loanRequestService.findLoanRequest(id);
 		
 		model.addAttribute("loanRequest", loanRequest);		
 		return "view";
 	}
 
 	@RequestMapping(value = "loanrequests/create", method = RequestMethod.POST)
-	public String create(@Valid LoanRequest loanRequest, BindingResult result,
+	public String create(@Valid final LoanRequest loanRequest, BindingResult result,
 			Model model, HttpServletRequest httpServletRequest) {
 
 		// Initiate the BPM modelling of the process
-		String processId = startProcess(loanRequest, httpServletRequest);
-		loanRequest.setProcessId(processId);
-		ibatisTemplate.insert("GoSmarter.loanRequestInsert", loanRequest);
-		return "redirect:/list";
+		final boolean submitter = httpServletRequest.isUserInRole(submitterRole);
+		final String userId = currentUser().getUsername();
+		if (async) {
+			loanRequestService.createAsync(loanRequest, submitter, userId);
+			return "redirect:/loanrequests/status/" + loanRequest.getId();
+		}
+		return perform(new Runnable() {
+			public void run() {
+				loanRequestService.create(loanRequest, submitter, userId);
+			}
+		}, "redirect:/list");
+	}
+
+	/**
+	 * Runs the work right here, with <code>loanrequest.work.enabled</code>
+	 * once the {@link LoanWorkExecutor} admits it.
+	 */
+	private String perform(Runnable work, String view) {
+		if (workExecutorEnabled) {
+			loanWorkExecutor.run(work);
+		} else {
+			work.run();
+		}
+		return view;
+	}
+
+	/**
+	 * Where an asynchronous create or approve has got to, and how busy the
+	 * job executor is.
+	 */
+	@RequestMapping(value = "loanrequests/status/{id}")
+	@ResponseBody
+	public Map<String, Object> status(@PathVariable("id") Integer id) {
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		LoanRequest loanRequest = loanRequestService.findLoanRequest(id);
+		status.put("id", id);
+		status.put("status", loanRequest == null ? null : loanRequest.getStatus());
+		status.put("processId", loanRequest == null ? null : loanRequest.getProcessId());
+		Task task = loanRequest == null ? null : loanRequestService.findOpenTask(id);
+		status.put("task", task == null ? null : task.getName());
+		status.put("executableJobs", jobExecutorMonitor.getExecutableJobs());
+		status.put("queuedJobs", jobExecutorMonitor.getQueuedJobs());
+		status.put("activeWorkers", jobExecutorMonitor.getActiveWorkers());
+		return status;
+	}
+
+	@RequestMapping(value = "loanrequests/bulk", method = RequestMethod.POST, consumes = "text/csv")
+	@ResponseBody
+	public LoanImportReport bulkCreateCsv(HttpServletRequest httpServletRequest) throws IOException {
+		String encoding = httpServletRequest.getCharacterEncoding();
+		return loanImportService.importLoans(new CsvLoanImportReader(
+				httpServletRequest.getInputStream(), encoding == null ? "UTF-8" : encoding),
+				currentUser().getUsername());
+	}
+
+	@RequestMapping(value = "loanrequests/bulk", method = RequestMethod.POST, consumes = "application/json")
+	@ResponseBody
+	public LoanImportReport bulkCreateJson(HttpServletRequest httpServletRequest) throws IOException {
+		return loanImportService.importLoans(new JsonLoanImportReader(
+				httpServletRequest.getInputStream()), currentUser().getUsername());
 	}
 
 	@RequestMapping(value = "loanrequests/update", method = RequestMethod.POST)
-	public String update(@Valid LoanRequest loanRequest, BindingResult result,
+	public String update(@Valid final LoanRequest loanRequest, BindingResult result,
 			Model model) {
-		boolean isFound = false;
-		
-		ibatisTemplate.update("GoSmarter.loanRequestUpdate", loanRequest);
+		String view = perform(new Runnable() {
+			public void run() {
+				loanRequestService.update(loanRequest);
+			}
+		}, "redirect:/list");
 		
 		model.addAttribute("status", "ok");
 
-		return "redirect:/list";
+		return view;
 	}
 
 	@RequestMapping(value = "loanrequestsapproval/approve/{id}")
-	public String approve(@PathVariable("id") Integer id, Model model, HttpServletRequest httpServletRequest) {
-		boolean isFound = false;
-
-		LoanRequest loanRequest = (LoanRequest) ibatisTemplate.queryForObject("GoSmarter.loanRequestDetails", id);
-
-		approveProcess(loanRequest, httpServletRequest);
+	public String approve(@PathVariable("id") final Integer id, Model model, HttpServletRequest httpServletRequest) {
+		final boolean approver = httpServletRequest.isUserInRole(approverRole);
+		final String userId = currentUser().getUsername();
+		if (async) {
+			loanRequestService.approveAsync(id, approver, userId);
+			return "redirect:/loanrequests/status/" + id;
+		}
+		String view = perform(new Runnable() {
+			public void run() {
+				loanRequestService.approve(id, approver, userId);
+			}
+		}, "redirect:/list");
 		// check for the userrole if user role is not admin return false
 
 		model.addAttribute("status", "ok");
-		return "redirect:/list";
+		return view;
 	}
 
-	private String startProcess(LoanRequest loanRequest,
-			HttpServletRequest request) {
-		if (request.isUserInRole(submitterRole)) {
-			logger.debug("in the startProcess ");
-			// Get Activiti services
-			// Create Activiti process engine
-			ProcessInstance processInstance = getRuntimeService()
-					.startProcessInstanceByKey("loanProcess");
-			logger.debug("startProcess processInstance Id="
-					+ processInstance.getId());
-
-			claimAndComplete(processInstance.getId());
+	@RequestMapping(value = "loanrequestsapproval/approve", method = RequestMethod.POST)
+	@ResponseBody
+	public List<LoanApprovalResult> approveAll(@RequestParam("ids") Integer[] ids,
+			HttpServletRequest httpServletRequest) {
+		if (!httpServletRequest.isUserInRole(approverRole)) {
+			return Collections.emptyList();
 		}
-		return "";
-	}
-
-	private ProcessEngine processEngine = null;
-	private RuntimeService getRuntimeService() {
-		if(processEngine == null){
-			processEngine = processEngineConfiguration.buildProcessEngine();
+		if (ids.length > maxApprovalBatchSize) {
+			throw new IllegalArgumentException("at most " + maxApprovalBatchSize
+					+ " loan requests can be approved at once");
 		}
-		return processEngine.getRuntimeService();
+		return loanApprovalService.approveAll(Arrays.asList(ids), currentUser().getUsername());
 	}
 
-	private TaskService getTaskService() {
-		if(processEngine == null){
-			processEngine = processEngineConfiguration.buildProcessEngine();
-		}
-		return processEngine.getTaskService();
+	/**
+	 * The current manager's pending approvals, one page at a time.
+	 */
+	@RequestMapping(value = "loanrequestsapproval/inbox", method = RequestMethod.GET)
+	@ResponseBody
+	public List<PendingApproval> inbox(@RequestParam(value = "page", required = false) Integer page,
+			@RequestParam(value = "size", required = false) Integer size) {
+		int sizeNo = size == null || size.intValue() < 1 ? defaultInboxSize : Math.min(size.intValue(), maxPageSize);
+		int firstResult = (page == null ? 0 : Math.max(page.intValue(), 1) - 1) * sizeNo;
+		return loanApprovalService.pendingApprovals(currentUser().getUsername(), firstResult, sizeNo);
 	}
 
-	private void approveProcess(LoanRequest loanRequest,
-			HttpServletRequest request) {
-		// TODO Auto-generated method stub
-
-		logger.debug("in the approveProcess ");
-		if (!loanRequest.getProcessId().isEmpty()
-				&& request.isUserInRole(approverRole)) {
-			claimAndComplete(loanRequest.getProcessId());
-		}
+	/**
+	 * Loan counts and amounts per status for the management dashboard, from
+	 * the LOANSTATS counters rather than a scan of LOANREQUEST.
+	 */
+	@RequestMapping(value = "loanrequestsapproval/statistics", method = RequestMethod.GET)
+	@ResponseBody
+	public List<LoanStatistics> statistics() {
+		return loanStatisticsService.statistics();
 	}
 
-	private void claimAndComplete(String processInstanceId) {
-		User user = (User) SecurityContextHolder.getContext()
+	private static User currentUser() {
+		return (User) SecurityContextHolder.getContext()
 				.getAuthentication().getPrincipal();
-
-		List<Task> tasks = getTaskService().createTaskQuery()
-				.taskCandidateUser(user.getUsername()).list();
-		logger.debug("startProcess task size=" + tasks.size());
-		Task task = getTask(tasks, processInstanceId);
-		if (task != null) {
-			logger.debug("got the task=" + tasks.size());
-			getTaskService().claim(task.getId(), user.getUsername());
-			getTaskService().complete(task.getId());
-		}
-	}
-
-	private Task getTask(List<Task> tasks, String processInstanceId) {
-		for (Task task : tasks) {
-			if (task.getProcessInstanceId().equals(processInstanceId)) {
-				return task;
-			}
-		}
-		return null;
 	}
 }
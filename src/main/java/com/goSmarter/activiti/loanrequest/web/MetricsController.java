@@ -0,0 +1,28 @@
+package com.goSmarter.activiti.loanrequest.web;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.goSmarter.activiti.loanrequest.metrics.TimingMetrics;
+
+/**
+ * The engine command and iBATIS statement timings as JSON, for whoever has
+ * no JMX client at hand.
+ */
+@Controller
+public class MetricsController {
+
+	@Autowired
+	TimingMetrics timingMetrics;
+
+	@RequestMapping(value = "metrics", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Map<String, Long>> metrics() {
+		return timingMetrics.snapshot();
+	}
+}
@@ -0,0 +1,79 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import org.activiti.engine.ProcessEngine;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericXmlApplicationContext;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.service.LoanRequestService;
+
+/**
+ * Takes loans from creation to approval on both paths: through the verify
+ * task, claimed and completed by a manager, and straight through the auto
+ * approval gateway. Prints the average latency of the whole path, and the
+ * commits, connections and writes it costs per loan.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.goSmarter.activiti.loanrequest.benchmark.AutoApprovalBenchmark \
+ *     -Dloans=2000
+ * </pre>
+ */
+public class AutoApprovalBenchmark {
+
+	public static void main(String[] args) {
+		int loans = Integer.getInteger("loans", 2000);
+		int warmUp = Integer.getInteger("warmUp", 200);
+
+		System.out.println("path\tavg (us)\tcommits/loan\tconnections/loan\twrites/loan\tapproved");
+		for (boolean autoApproval : new boolean[] { false, true }) {
+			System.setProperty("loanrequest.autoApproval.enabled", String.valueOf(autoApproval));
+			GenericXmlApplicationContext context = new GenericXmlApplicationContext();
+			context.load("classpath:META-INF/spring/applicationContext-activiti.xml",
+					"classpath:META-INF/spring/applicationContext.xml",
+					"classpath:META-INF/spring/test-datasource-config.xml");
+			context.registerBeanDefinition("countingDataSourcePostProcessor",
+					new RootBeanDefinition(CountingDataSourcePostProcessor.class));
+			context.refresh();
+			try {
+				BenchmarkSupport.createUsers(context.getBean(ProcessEngine.class).getIdentityService());
+				LoanRequestService loanRequestService = context.getBean(LoanRequestService.class);
+				CountingDataSourcePostProcessor counter = context.getBean(CountingDataSourcePostProcessor.class);
+
+				int id = (autoApproval ? 2 : 1) * 1000000;
+				for (int i = 0; i < warmUp; i++) {
+					createAndApprove(loanRequestService, id++, autoApproval);
+				}
+				counter.reset();
+				int approved = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < loans; i++) {
+					if (createAndApprove(loanRequestService, id++, autoApproval)) {
+						approved++;
+					}
+				}
+				long avg = (System.nanoTime() - start) / loans / 1000;
+				System.out.println((autoApproval ? "auto approval" : "verify task") + "\t" + avg + "\t"
+						+ (double) counter.getCommits() / loans + "\t"
+						+ (double) counter.getConnections() / loans + "\t"
+						+ (double) counter.getWrites() / loans + "\t" + approved);
+			} finally {
+				context.close();
+				System.clearProperty("loanrequest.autoApproval.enabled");
+			}
+		}
+	}
+
+	/** Creates a loan small enough to qualify, approves it unless the engine did, and tells whether it ended approved. */
+	private static boolean createAndApprove(LoanRequestService loanRequestService, int id, boolean autoApproval) {
+		LoanRequest loanRequest = new LoanRequest();
+		loanRequest.setId(id);
+		loanRequest.setCustomerName("customer" + id);
+		loanRequest.setAmount(500d);
+		loanRequestService.create(loanRequest, true, BenchmarkSupport.SUBMITTER);
+		if (!autoApproval) {
+			loanRequestService.approve(id, true, BenchmarkSupport.APPROVER);
+		}
+		return LoanRequest.APPROVED.equals(loanRequestService.findLoanRequest(id).getStatus());
+	}
+}
@@ -0,0 +1,93 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.activiti.engine.ProcessEngine;
+import org.springframework.context.support.GenericXmlApplicationContext;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.service.LoanApprovalService;
+import com.goSmarter.activiti.loanrequest.service.LoanRequestService;
+
+/**
+ * Compares approving a backlog of loans one request at a time, as a client
+ * looping over <code>loanrequestsapproval/approve/{id}</code> does, with
+ * <code>loanrequestsapproval/approve</code> taking batches of ids. Calls the
+ * services behind the two endpoints, so the numbers leave out the MVC and
+ * security filter overhead, which is the same per request on both paths and
+ * only favours the batch further. Prints approvals per second for each path
+ * and the speed-up of the batch; the target is at least 10x.
+ *
+ * Not a unit test; run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.goSmarter.activiti.loanrequest.benchmark.BatchApprovalBenchmark \
+ *     -Dloans=2000 -Dbatch=100
+ * </pre>
+ */
+public class BatchApprovalBenchmark {
+
+	public static void main(String[] args) {
+		int loans = Integer.getInteger("loans", 2000);
+		int batch = Integer.getInteger("batch", 100);
+
+		GenericXmlApplicationContext context = new GenericXmlApplicationContext(
+				"classpath:META-INF/spring/applicationContext-activiti.xml",
+				"classpath:META-INF/spring/applicationContext.xml",
+				"classpath:META-INF/spring/test-datasource-config.xml");
+		try {
+			BenchmarkSupport.createUsers(context.getBean(ProcessEngine.class).getIdentityService());
+			LoanRequestService loanRequestService = context.getBean(LoanRequestService.class);
+			LoanApprovalService loanApprovalService = context.getBean(LoanApprovalService.class);
+
+			// warm up both paths
+			approveOneByOne(loanRequestService, create(loanRequestService, 1000000, batch));
+			approveInBatches(loanApprovalService, create(loanRequestService, 1100000, batch), batch);
+
+			List<Integer> single = create(loanRequestService, 2000000, loans);
+			long start = System.nanoTime();
+			approveOneByOne(loanRequestService, single);
+			double singlePerSecond = loans * 1e9 / (System.nanoTime() - start);
+
+			List<Integer> batched = create(loanRequestService, 3000000, loans);
+			start = System.nanoTime();
+			approveInBatches(loanApprovalService, batched, batch);
+			double batchPerSecond = loans * 1e9 / (System.nanoTime() - start);
+
+			System.out.println("path\tapprovals/s");
+			System.out.println("approve/{id}\t" + (long) singlePerSecond);
+			System.out.println("approve, batch " + batch + "\t" + (long) batchPerSecond);
+			System.out.println("speed-up\t" + Math.round(batchPerSecond / singlePerSecond * 10) / 10.0 + "x");
+		} finally {
+			context.close();
+		}
+	}
+
+	private static void approveOneByOne(LoanRequestService loanRequestService, List<Integer> ids) {
+		for (Integer id : ids) {
+			loanRequestService.approve(id, true, BenchmarkSupport.APPROVER);
+		}
+	}
+
+	private static void approveInBatches(LoanApprovalService loanApprovalService, List<Integer> ids, int batch) {
+		for (int from = 0; from < ids.size(); from += batch) {
+			loanApprovalService.approveAll(ids.subList(from, Math.min(from + batch, ids.size())),
+					BenchmarkSupport.APPROVER);
+		}
+	}
+
+	/** Creates and submits loans, each leaving an open verify task. */
+	private static List<Integer> create(LoanRequestService loanRequestService, int firstId, int count) {
+		List<Integer> ids = new ArrayList<Integer>(count);
+		for (int id = firstId; id < firstId + count; id++) {
+			LoanRequest loanRequest = new LoanRequest();
+			loanRequest.setId(id);
+			loanRequest.setCustomerName("customer" + id);
+			loanRequest.setAmount(5000d);
+			loanRequestService.create(loanRequest, true, BenchmarkSupport.SUBMITTER);
+			ids.add(id);
+		}
+		return ids;
+	}
+}
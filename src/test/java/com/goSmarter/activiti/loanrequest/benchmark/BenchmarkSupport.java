@@ -0,0 +1,39 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import org.activiti.engine.IdentityService;
+import org.activiti.engine.identity.User;
+
+/**
+ * Shared set up for the benchmark harnesses and the load-test harness: the
+ * same fozzie (accountancy) and kermit (management) users the controller
+ * test works with.
+ */
+public final class BenchmarkSupport {
+
+	public static final String SUBMITTER = "fozzie";
+	public static final String APPROVER = "kermit";
+
+	/**
+	 * Creates the users, groups and memberships unless an earlier run in the
+	 * same in-memory database already did.
+	 */
+	public static void createUsers(IdentityService identityService) {
+		if (identityService.createUserQuery().userId(SUBMITTER).count() > 0) {
+			return;
+		}
+		User user = identityService.newUser(SUBMITTER);
+		user.setPassword(SUBMITTER);
+		identityService.saveUser(user);
+		user = identityService.newUser(APPROVER);
+		user.setPassword(APPROVER);
+		identityService.saveUser(user);
+
+		identityService.saveGroup(identityService.newGroup("accountancy"));
+		identityService.saveGroup(identityService.newGroup("management"));
+
+		identityService.createMembership(SUBMITTER, "accountancy");
+		identityService.createMembership(APPROVER, "management");
+	}
+
+	private BenchmarkSupport() {}
+}
@@ -0,0 +1,108 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.util.List;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.TaskService;
+import org.activiti.engine.task.Task;
+import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.springframework.context.support.GenericXmlApplicationContext;
+
+import com.goSmarter.activiti.loanrequest.engine.ClaimAndCompleteTaskCmd;
+
+/**
+ * Measures the latency of a single approval while the backlog of open
+ * "Verify loan request" tasks grows. Compares the old approach (load every
+ * candidate task, scan for the process instance) with
+ * {@link ClaimAndCompleteTaskCmd}.
+ * 
+ * Not a unit test; run it with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.goSmarter.activiti.loanrequest.benchmark.ClaimAndCompleteBenchmark \
+ *     -Dbacklogs=1000,10000,100000 -Dsamples=200 -DscanSamples=10
+ * </pre>
+ */
+public class ClaimAndCompleteBenchmark {
+
+	public static void main(String[] args) {
+		String[] backlogs = System.getProperty("backlogs", "1000,10000,100000").split(",");
+		int samples = Integer.getInteger("samples", 200);
+		int scanSamples = Integer.getInteger("scanSamples", 10);
+
+		// the full application: the gateway after the submit task calls the autoApprovalPolicy bean
+		GenericXmlApplicationContext context = new GenericXmlApplicationContext(
+				"classpath:META-INF/spring/applicationContext-activiti.xml",
+				"classpath:META-INF/spring/applicationContext.xml",
+				"classpath:META-INF/spring/test-datasource-config.xml");
+		try {
+			ProcessEngine processEngine = context.getBean(ProcessEngine.class);
+			SpringProcessEngineConfiguration configuration = context
+					.getBean(SpringProcessEngineConfiguration.class);
+			BenchmarkSupport.createUsers(processEngine.getIdentityService());
+
+			System.out.println("backlog\tscan avg (us)\tscoped command avg (us)");
+			int backlog = 0;
+			for (String target : backlogs) {
+				int size = Integer.parseInt(target.trim());
+				while (backlog < size) {
+					startAndSubmit(processEngine);
+					backlog++;
+				}
+				long scan = scanApproval(processEngine, scanSamples);
+				long scoped = scopedApproval(processEngine, configuration, samples);
+				System.out.println(backlog + "\t" + scan + "\t" + scoped);
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+	private static long scanApproval(ProcessEngine processEngine, int samples) {
+		TaskService taskService = processEngine.getTaskService();
+		long total = 0;
+		for (int i = 0; i < samples; i++) {
+			String processInstanceId = startAndSubmit(processEngine);
+			long start = System.nanoTime();
+			List<Task> tasks = taskService.createTaskQuery()
+					.taskCandidateUser(BenchmarkSupport.APPROVER).list();
+			for (Task task : tasks) {
+				if (task.getProcessInstanceId().equals(processInstanceId)) {
+					taskService.claim(task.getId(), BenchmarkSupport.APPROVER);
+					taskService.complete(task.getId());
+					break;
+				}
+			}
+			total += System.nanoTime() - start;
+		}
+		return total / samples / 1000;
+	}
+
+	private static long scopedApproval(ProcessEngine processEngine,
+			SpringProcessEngineConfiguration configuration, int samples) {
+		long total = 0;
+		for (int i = 0; i < samples; i++) {
+			String processInstanceId = startAndSubmit(processEngine);
+			long start = System.nanoTime();
+			configuration.getCommandExecutorTxRequired().execute(
+					new ClaimAndCompleteTaskCmd(processInstanceId, BenchmarkSupport.APPROVER));
+			total += System.nanoTime() - start;
+		}
+		return total / samples / 1000;
+	}
+
+	/**
+	 * Starts a loan process and completes the submit task, leaving one open
+	 * "Verify loan request" task in the approvers' backlog.
+	 */
+	private static String startAndSubmit(ProcessEngine processEngine) {
+		RuntimeService runtimeService = processEngine.getRuntimeService();
+		TaskService taskService = processEngine.getTaskService();
+		String processInstanceId = runtimeService.startProcessInstanceByKey("loanProcess").getId();
+		Task task = taskService.createTaskQuery().processInstanceId(processInstanceId).singleResult();
+		taskService.claim(task.getId(), BenchmarkSupport.SUBMITTER);
+		taskService.complete(task.getId());
+		return processInstanceId;
+	}
+}
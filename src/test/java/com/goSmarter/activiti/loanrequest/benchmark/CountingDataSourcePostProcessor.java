@@ -0,0 +1,131 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Wraps every {@link DataSource} bean so the benchmarks can count what
+ * actually reaches the database: connections handed out, commits, and
+ * statement executions that write (inserts, updates and deletes, counting
+ * each row of a batch). Writes on an auto-commit connection count as commits.
+ */
+public class CountingDataSourcePostProcessor implements BeanPostProcessor {
+
+	private final AtomicLong connections = new AtomicLong();
+
+	private final AtomicLong commits = new AtomicLong();
+
+	private final AtomicLong writes = new AtomicLong();
+
+	public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+		return bean;
+	}
+
+	public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+		if (!(bean instanceof DataSource)) {
+			return bean;
+		}
+		return proxy(bean, new Counter(bean) {
+			Object invoke(Method method, Object result) {
+				if (method.getName().equals("getConnection")) {
+					connections.incrementAndGet();
+					return proxy(result, new ConnectionCounter(result));
+				}
+				return result;
+			}
+		});
+	}
+
+	public void reset() {
+		connections.set(0);
+		commits.set(0);
+		writes.set(0);
+	}
+
+	public long getConnections() {
+		return connections.get();
+	}
+
+	public long getCommits() {
+		return commits.get();
+	}
+
+	public long getWrites() {
+		return writes.get();
+	}
+
+	private static Object proxy(Object target, InvocationHandler handler) {
+		return Proxy.newProxyInstance(target.getClass().getClassLoader(),
+				ClassUtils.getAllInterfaces(target), handler);
+	}
+
+	private class ConnectionCounter extends Counter {
+
+		private final Connection connection;
+
+		ConnectionCounter(Object target) {
+			super(target);
+			this.connection = (Connection) target;
+		}
+
+		Object invoke(Method method, Object result) throws SQLException {
+			String name = method.getName();
+			if (name.equals("commit")) {
+				commits.incrementAndGet();
+			} else if (result instanceof Statement) {
+				return proxy(result, new Counter(result) {
+					Object invoke(Method method, Object result) throws SQLException {
+						String name = method.getName();
+						boolean write = false;
+						if (name.equals("executeUpdate")
+								|| (name.equals("execute") && Boolean.FALSE.equals(result))) {
+							// execute() returns false for inserts, updates and deletes
+							writes.incrementAndGet();
+							write = true;
+						} else if (name.equals("executeBatch")) {
+							writes.addAndGet(((int[]) result).length);
+							write = true;
+						}
+						if (write && connection.getAutoCommit()) {
+							// every write on an auto-commit connection is its own commit
+							commits.incrementAndGet();
+						}
+						return result;
+					}
+				});
+			}
+			return result;
+		}
+	}
+
+	private abstract static class Counter implements InvocationHandler {
+
+		private final Object target;
+
+		Counter(Object target) {
+			this.target = target;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			try {
+				return invoke(method, method.invoke(target, args));
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+
+		abstract Object invoke(Method method, Object result) throws SQLException;
+	}
+}
@@ -0,0 +1,142 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.activiti.engine.ActivitiOptimisticLockingException;
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.ProcessEngineConfiguration;
+import org.activiti.engine.RuntimeService;
+import org.activiti.engine.impl.cfg.ProcessEngineConfigurationImpl;
+
+import com.goSmarter.activiti.loanrequest.engine.TimeOrderedIdGenerator;
+
+/**
+ * Starts loan processes from several engines sharing one file based H2
+ * database, the way several app nodes share the engine database, once per id
+ * strategy: database id blocks of a given size, or time ordered UUIDs. Prints
+ * the started processes per second, the optimistic locking and other
+ * failures (lock timeouts, mostly), and for the database strategies how many
+ * id blocks were taken from <code>ACT_GE_PROPERTY</code>. The database runs
+ * with MVCC so that the engines contend on the id row rather than on whole
+ * tables.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.goSmarter.activiti.loanrequest.benchmark.IdContentionBenchmark \
+ *     -Dstrategies=db:1,db:100,db:2500,time-ordered -Dengines=4 -Dthreads=4 -Dseconds=20
+ * </pre>
+ */
+public class IdContentionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String[] strategies = System.getProperty("strategies", "db:1,db:100,db:2500,time-ordered").split(",");
+		int engines = Integer.getInteger("engines", 4);
+		int threads = Integer.getInteger("threads", 4);
+		long seconds = Long.getLong("seconds", 20);
+		String url = System.getProperty("url", "jdbc:h2:target/id-contention;MVCC=TRUE;LOCK_TIMEOUT=10000");
+
+		System.out.println("strategy\tengines\tthreads/engine\tstarts\tstarts/s"
+				+ "\toptimistic lock failures\tother failures\tid blocks");
+		for (String strategy : strategies) {
+			strategy = strategy.trim();
+			List<ProcessEngine> processEngines = new ArrayList<ProcessEngine>();
+			try {
+				for (int i = 0; i < engines; i++) {
+					processEngines.add(processEngine(strategy, "contention-" + i, url));
+				}
+				if (processEngines.get(0).getRepositoryService().createProcessDefinitionQuery()
+						.processDefinitionKey("loanProcess").count() == 0) {
+					processEngines.get(0).getRepositoryService().createDeployment()
+							.addClasspathResource("org/activiti/spring/test/usertask/LoanProcess.bpmn20.xml").deploy();
+				}
+				run(processEngines, threads, Math.max(seconds / 4, 1), null, null, null);
+
+				long nextId = nextDbId(processEngines.get(0));
+				AtomicLong starts = new AtomicLong();
+				AtomicLong conflicts = new AtomicLong();
+				AtomicLong failures = new AtomicLong();
+				run(processEngines, threads, seconds, starts, conflicts, failures);
+				String blocks = strategy.startsWith("db:")
+						? String.valueOf((nextDbId(processEngines.get(0)) - nextId)
+								/ Integer.parseInt(strategy.substring(3)))
+						: "-";
+				System.out.println(strategy + "\t" + engines + "\t" + threads + "\t" + starts.get() + "\t"
+						+ starts.get() / seconds + "\t" + conflicts.get() + "\t" + failures.get() + "\t" + blocks);
+			} finally {
+				for (ProcessEngine processEngine : processEngines) {
+					processEngine.close();
+				}
+			}
+		}
+	}
+
+	private static void run(List<ProcessEngine> processEngines, int threads, long seconds, final AtomicLong starts,
+			final AtomicLong conflicts, final AtomicLong failures) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(processEngines.size() * threads);
+		for (ProcessEngine processEngine : processEngines) {
+			final RuntimeService runtimeService = processEngine.getRuntimeService();
+			for (int t = 0; t < threads; t++) {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						while (System.nanoTime() < deadline) {
+							try {
+								runtimeService.startProcessInstanceByKey("loanProcess");
+								if (starts != null) {
+									starts.incrementAndGet();
+								}
+							} catch (ActivitiOptimisticLockingException e) {
+								if (conflicts != null) {
+									conflicts.incrementAndGet();
+								}
+							} catch (RuntimeException e) {
+								if (failures != null) {
+									failures.incrementAndGet();
+								}
+							}
+						}
+					}
+				});
+			}
+		}
+		start.countDown();
+		executor.shutdown();
+		executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+	}
+
+	private static ProcessEngine processEngine(String strategy, String name, String url) {
+		ProcessEngineConfigurationImpl configuration = (ProcessEngineConfigurationImpl) ProcessEngineConfiguration
+				.createStandaloneProcessEngineConfiguration();
+		configuration.setProcessEngineName(name);
+		configuration.setJdbcUrl(url);
+		configuration.setJdbcDriver("org.h2.Driver");
+		configuration.setJdbcUsername("sa");
+		configuration.setJdbcPassword("");
+		configuration.setDatabaseSchemaUpdate(ProcessEngineConfiguration.DB_SCHEMA_UPDATE_TRUE);
+		configuration.setJobExecutorActivate(false);
+		if (strategy.startsWith("db:")) {
+			configuration.setIdBlockSize(Integer.parseInt(strategy.substring(3)));
+		} else if ("time-ordered".equals(strategy)) {
+			configuration.setIdGenerator(new TimeOrderedIdGenerator());
+		} else {
+			throw new IllegalArgumentException("unknown id strategy " + strategy);
+		}
+		return configuration.buildProcessEngine();
+	}
+
+	private static long nextDbId(ProcessEngine processEngine) {
+		return Long.parseLong(processEngine.getManagementService().getProperties().get("next.dbid"));
+	}
+}
@@ -0,0 +1,82 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.activiti.engine.ProcessEngine;
+import org.activiti.engine.RuntimeService;
+import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.engine.ClaimAndCompleteTaskCmd;
+import com.goSmarter.activiti.loanrequest.service.LoanRequestService;
+
+/**
+ * The application the JMH benchmarks run against: the same in-memory H2
+ * engine database and HSQL LOANREQUEST database as the controller test, one
+ * per trial and shared by all benchmark threads.
+ */
+@State(Scope.Benchmark)
+public class LoanApplicationState {
+
+	GenericXmlApplicationContext context;
+
+	ProcessEngine processEngine;
+
+	RuntimeService runtimeService;
+
+	SpringProcessEngineConfiguration processEngineConfiguration;
+
+	LoanRequestService loanRequestService;
+
+	SqlMapClientTemplate ibatisTemplate;
+
+	/** Ids for loans created while measuring, above any preloaded table. */
+	private final AtomicInteger ids = new AtomicInteger(10000000);
+
+	@Setup(Level.Trial)
+	public void start() {
+		context = new GenericXmlApplicationContext(
+				"classpath:META-INF/spring/applicationContext-activiti.xml",
+				"classpath:META-INF/spring/applicationContext.xml",
+				"classpath:META-INF/spring/test-datasource-config.xml");
+		processEngine = context.getBean(ProcessEngine.class);
+		runtimeService = processEngine.getRuntimeService();
+		processEngineConfiguration = context.getBean(SpringProcessEngineConfiguration.class);
+		loanRequestService = context.getBean(LoanRequestService.class);
+		ibatisTemplate = context.getBean(SqlMapClientTemplate.class);
+		BenchmarkSupport.createUsers(processEngine.getIdentityService());
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		context.close();
+	}
+
+	LoanRequest newLoanRequest() {
+		int id = ids.incrementAndGet();
+		LoanRequest loanRequest = new LoanRequest();
+		loanRequest.setId(id);
+		loanRequest.setCustomerName("customer" + id);
+		loanRequest.setAmount(1000d);
+		return loanRequest;
+	}
+
+	/** Starts a loanProcess and completes its submit task, as create does. */
+	String startAndSubmit() {
+		String processInstanceId = runtimeService.startProcessInstanceByKey("loanProcess").getId();
+		claimAndComplete(processInstanceId, BenchmarkSupport.SUBMITTER);
+		return processInstanceId;
+	}
+
+	String claimAndComplete(String processInstanceId, String userId) {
+		return processEngineConfiguration.getCommandExecutorTxRequired().execute(
+				new ClaimAndCompleteTaskCmd(processInstanceId, userId));
+	}
+}
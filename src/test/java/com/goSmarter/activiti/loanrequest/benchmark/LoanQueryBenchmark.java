@@ -0,0 +1,83 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+
+/**
+ * The LOANREQUEST reads at several table sizes: the full
+ * <code>loanRequestList</code> the list page used to run, the keyset page it
+ * runs now, <code>loanRequestDetails</code> for a random id, and a page of
+ * the customer name prefix search.
+ * 
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="LoanQueryBenchmark -f 1 -p tableSize=1000,100000 -t 8"
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoanQueryBenchmark {
+
+	@Param({ "100", "10000", "100000" })
+	int tableSize;
+
+	@State(Scope.Thread)
+	public static class RandomId {
+
+		final Random random = new Random();
+	}
+
+	@Setup(Level.Trial)
+	public void fill(LoanApplicationState application) {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(application.context.getBean("dataSource", DataSource.class));
+		jdbcTemplate.update("delete from LOANREQUEST");
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for (int id = 1; id <= tableSize; id++) {
+			rows.add(new Object[] { id, "customer" + id, "CUSTOMER" + id, 1000d, "", LoanRequest.AWAITING_APPROVAL });
+			if (rows.size() == 1000 || id == tableSize) {
+				jdbcTemplate.batchUpdate("insert into LOANREQUEST (id, customerName, customerName_key, amount,"
+						+ " processId, status) values (?, ?, ?, ?, ?, ?)", rows);
+				rows.clear();
+			}
+		}
+	}
+
+	@Benchmark
+	public Object loanRequestList(LoanApplicationState application) {
+		return application.ibatisTemplate.queryForList("GoSmarter.loanRequestList");
+	}
+
+	@Benchmark
+	public Object loanRequestPage() {
+		return LoanRequest.findLoanRequestEntriesAfter(null, 25);
+	}
+
+	@Benchmark
+	public Object customerNameSearch(RandomId randomId) {
+		return LoanRequest.findLoanRequestsByCustomerNamePrefix("Customer" + randomId.random.nextInt(tableSize),
+				null, null, 25);
+	}
+
+	@Benchmark
+	public Object loanRequestDetails(LoanApplicationState application, RandomId randomId) {
+		return application.ibatisTemplate.queryForObject("GoSmarter.loanRequestDetails",
+				randomId.random.nextInt(tableSize) + 1);
+	}
+}
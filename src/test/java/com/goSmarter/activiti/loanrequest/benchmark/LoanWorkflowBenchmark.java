@@ -0,0 +1,66 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.activiti.engine.runtime.ProcessInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+
+/**
+ * The engine side of the loan workflow: starting a loanProcess, claiming and
+ * completing its verify task, and the whole create-then-approve flow through
+ * {@link com.goSmarter.activiti.loanrequest.service.LoanRequestService}.
+ * Every invocation leaves a process instance behind, so the engine tables
+ * grow over a run, as they do in production.
+ * 
+ * Run it through the jmh profile, with <code>-t</code> for the number of
+ * threads:
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="LoanWorkflowBenchmark -f 1 -t 4"
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoanWorkflowBenchmark {
+
+	/**
+	 * A submitted process per invocation. Preparing it takes as long as the
+	 * measured call, which is well above the cost of a per-invocation set up.
+	 */
+	@State(Scope.Thread)
+	public static class SubmittedProcess {
+
+		String processInstanceId;
+
+		@Setup(Level.Invocation)
+		public void submit(LoanApplicationState application) {
+			processInstanceId = application.startAndSubmit();
+		}
+	}
+
+	@Benchmark
+	public ProcessInstance startProcessInstance(LoanApplicationState application) {
+		return application.runtimeService.startProcessInstanceByKey("loanProcess");
+	}
+
+	@Benchmark
+	public String claimAndComplete(LoanApplicationState application, SubmittedProcess process) {
+		return application.claimAndComplete(process.processInstanceId, BenchmarkSupport.APPROVER);
+	}
+
+	@Benchmark
+	public LoanRequest createThenApprove(LoanApplicationState application) {
+		LoanRequest loanRequest = application.newLoanRequest();
+		application.loanRequestService.create(loanRequest, true, BenchmarkSupport.SUBMITTER);
+		application.loanRequestService.approve(loanRequest.getId(), true, BenchmarkSupport.APPROVER);
+		return loanRequest;
+	}
+}
@@ -0,0 +1,141 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.DataSourceInitializer;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+
+import com.goSmarter.activiti.loanrequest.datasource.ShardedSqlMapClientTemplate;
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.metrics.TimedSqlMapClientTemplate;
+import com.goSmarter.activiti.loanrequest.metrics.TimingMetrics;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+/**
+ * Inserts loans through {@link ShardedSqlMapClientTemplate} from concurrent
+ * writers into 1, 2, 4 and 8 file based H2 databases, and prints the
+ * throughput and the insert latency for every shard count. All shards share
+ * this machine, so the scaling shows how much one database's locking and
+ * log writes limit the writers, not what separate servers would give.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.goSmarter.activiti.loanrequest.benchmark.ShardedInsertBenchmark \
+ *     -Dshards=1,2,4,8 -Dwriters=16 -Dloans=20000
+ * </pre>
+ */
+public class ShardedInsertBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		String[] shardCounts = System.getProperty("shards", "1,2,4,8").split(",");
+		int writers = Integer.getInteger("writers", 16);
+		int loans = Integer.getInteger("loans", 20000);
+		String directory = System.getProperty("directory", "target/shards");
+
+		System.out.println("shards\twriters\tloans\tloans/s\tp50 (us)\tp99 (us)");
+		for (String shardCount : shardCounts) {
+			int count = Integer.parseInt(shardCount.trim());
+			List<BasicDataSource> databases = new ArrayList<BasicDataSource>();
+			List<SqlMapClientTemplate> shards = new ArrayList<SqlMapClientTemplate>();
+			TimingMetrics timingMetrics = new TimingMetrics();
+			for (int i = 0; i < count; i++) {
+				BasicDataSource database = database(directory + "/" + count + "-" + i, writers);
+				databases.add(database);
+				shards.add(template(database, timingMetrics));
+			}
+			ShardedSqlMapClientTemplate template = new ShardedSqlMapClientTemplate();
+			template.setShards(shards);
+			template.afterPropertiesSet();
+			try {
+				insert(template, writers, loans / 10, 0);
+				timingMetrics.reset();
+				long elapsed = insert(template, writers, loans, loans);
+				Map<String, Long> timing = timingMetrics.snapshot().get("GoSmarter.loanRequestInsert");
+				System.out.println(count + "\t" + writers + "\t" + loans + "\t"
+						+ loans * TimeUnit.SECONDS.toNanos(1) / elapsed + "\t"
+						+ timing.get("p50Micros") + "\t" + timing.get("p99Micros"));
+			} finally {
+				template.destroy();
+				for (BasicDataSource database : databases) {
+					database.close();
+				}
+			}
+		}
+	}
+
+	/** Inserts loans with ids from firstId on, and returns the nanoseconds it took. */
+	private static long insert(final SqlMapClientTemplate template, int writers, int loans, int firstId)
+			throws InterruptedException {
+		final AtomicInteger remaining = new AtomicInteger(loans);
+		final AtomicInteger nextId = new AtomicInteger(firstId);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(writers);
+		for (int i = 0; i < writers; i++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (remaining.getAndDecrement() > 0) {
+						int id = nextId.incrementAndGet();
+						LoanRequest loanRequest = new LoanRequest();
+						loanRequest.setId(id);
+						loanRequest.setCustomerName("customer" + id);
+						loanRequest.setAmount(1000d);
+						loanRequest.setStatus(LoanRequest.SUBMITTED);
+						template.insert("GoSmarter.loanRequestInsert", loanRequest);
+					}
+				}
+			});
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.HOURS);
+		return System.nanoTime() - begin;
+	}
+
+	private static BasicDataSource database(String file, int writers) {
+		BasicDataSource database = new BasicDataSource();
+		database.setDriverClassName("org.h2.Driver");
+		database.setUrl("jdbc:h2:" + file);
+		database.setUsername("sa");
+		database.setPassword("");
+		database.setMaxActive(writers);
+		database.setMaxIdle(writers);
+
+		ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+		populator.addScript(new ClassPathResource("META-INF/spring/SourceDB.sql"));
+		DataSourceInitializer initializer = new DataSourceInitializer();
+		initializer.setDataSource(database);
+		initializer.setDatabasePopulator(populator);
+		initializer.afterPropertiesSet();
+		return database;
+	}
+
+	private static SqlMapClientTemplate template(BasicDataSource database, TimingMetrics timingMetrics)
+			throws Exception {
+		SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+		factory.setConfigLocation(new ClassPathResource("META-INF/spring/ibatis-config.xml"));
+		factory.setDataSource(database);
+		factory.afterPropertiesSet();
+		TimedSqlMapClientTemplate template = new TimedSqlMapClientTemplate();
+		template.setSqlMapClient((SqlMapClient) factory.getObject());
+		template.setTimingMetrics(timingMetrics);
+		template.afterPropertiesSet();
+		return template;
+	}
+}
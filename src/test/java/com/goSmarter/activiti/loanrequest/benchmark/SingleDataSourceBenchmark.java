@@ -0,0 +1,73 @@
+package com.goSmarter.activiti.loanrequest.benchmark;
+
+import org.activiti.engine.ProcessEngine;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.support.GenericXmlApplicationContext;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.goSmarter.activiti.loanrequest.service.LoanRequestService;
+
+/**
+ * Compares the create flow with LOANREQUEST on its own datasource
+ * (<code>test-datasource-config.xml</code>) and on the engine's datasource
+ * (<code>single-datasource-config.xml</code>): average latency, and commits,
+ * connections and writes per created loan.
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.goSmarter.activiti.loanrequest.benchmark.SingleDataSourceBenchmark \
+ *     -Dloans=2000
+ * </pre>
+ */
+public class SingleDataSourceBenchmark {
+
+	private static final String[] configurations = {
+			"META-INF/spring/test-datasource-config.xml",
+			"META-INF/spring/single-datasource-config.xml" };
+
+	public static void main(String[] args) {
+		int loans = Integer.getInteger("loans", 2000);
+		int warmUp = Integer.getInteger("warmUp", 200);
+
+		System.out.println("configuration\tavg (us)\tcommits/loan\tconnections/loan\twrites/loan");
+		for (int run = 0; run < configurations.length; run++) {
+			GenericXmlApplicationContext context = new GenericXmlApplicationContext();
+			context.load("classpath:META-INF/spring/applicationContext-activiti.xml",
+					"classpath:META-INF/spring/applicationContext.xml",
+					"classpath:" + configurations[run]);
+			context.registerBeanDefinition("countingDataSourcePostProcessor",
+					new RootBeanDefinition(CountingDataSourcePostProcessor.class));
+			context.refresh();
+			try {
+				BenchmarkSupport.createUsers(context.getBean(ProcessEngine.class).getIdentityService());
+				LoanRequestService loanRequestService = context.getBean(LoanRequestService.class);
+				CountingDataSourcePostProcessor counter = context.getBean(CountingDataSourcePostProcessor.class);
+
+				int id = (run + 1) * 1000000;
+				for (int i = 0; i < warmUp; i++) {
+					create(loanRequestService, id++);
+				}
+				counter.reset();
+				long start = System.nanoTime();
+				for (int i = 0; i < loans; i++) {
+					create(loanRequestService, id++);
+				}
+				long avg = (System.nanoTime() - start) / loans / 1000;
+				System.out.println(configurations[run] + "\t" + avg + "\t"
+						+ (double) counter.getCommits() / loans + "\t"
+						+ (double) counter.getConnections() / loans + "\t"
+						+ (double) counter.getWrites() / loans);
+			} finally {
+				context.close();
+			}
+		}
+	}
+
+	private static void create(LoanRequestService loanRequestService, int id) {
+		LoanRequest loanRequest = new LoanRequest();
+		loanRequest.setId(id);
+		loanRequest.setCustomerName("customer" + id);
+		loanRequest.setAmount(1000d);
+		loanRequestService.create(loanRequest, true, BenchmarkSupport.SUBMITTER);
+	}
+}
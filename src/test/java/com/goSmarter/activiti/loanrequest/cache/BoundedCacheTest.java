@@ -0,0 +1,44 @@
+package com.goSmarter.activiti.loanrequest.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(2, 60);
+		cache.put(1, "one");
+		cache.put(2, "two");
+		cache.get(1);
+		cache.put(3, "three");
+
+		assertNull(cache.get(2));
+		assertEquals("one", cache.get(1));
+		assertEquals("three", cache.get(3));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testExpiredEntriesAreMisses() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(2, 0);
+		cache.put(1, "one");
+
+		assertNull(cache.get(1));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test
+	public void testStaleLoadIsNotCached() {
+		BoundedCache<Integer, String> cache = new BoundedCache<Integer, String>(2, 60);
+		long generation = cache.generation();
+		cache.invalidate(1);
+		cache.putIfUnchanged(1, "old", generation);
+
+		assertNull(cache.get(1));
+	}
+}
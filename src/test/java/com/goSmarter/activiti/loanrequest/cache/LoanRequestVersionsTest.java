@@ -0,0 +1,39 @@
+package com.goSmarter.activiti.loanrequest.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LoanRequestVersionsTest {
+
+	@Test
+	public void testChangeBumpsLoanAndTable() {
+		LoanRequestVersions versions = new LoanRequestVersions();
+		versions.ttlSeconds = 3600;
+		String loan = versions.loan(1).getEtag();
+		String other = versions.loan(2).getEtag();
+		String table = versions.table().getEtag();
+
+		versions.changed(1);
+
+		assertFalse(loan.equals(versions.loan(1).getEtag()));
+		assertEquals(other, versions.loan(2).getEtag());
+		assertFalse(table.equals(versions.table().getEtag()));
+	}
+
+	@Test
+	public void testVersionsRollOverAfterTheCacheTimeToLive() throws InterruptedException {
+		LoanRequestVersions versions = new LoanRequestVersions();
+		versions.ttlSeconds = 1;
+		LoanRequestVersions.Version loan = versions.loan(1);
+		LoanRequestVersions.Version table = versions.table();
+
+		Thread.sleep(1100);
+
+		assertFalse(loan.getEtag().equals(versions.loan(1).getEtag()));
+		assertFalse(table.getEtag().equals(versions.table().getEtag()));
+		assertTrue(versions.loan(1).getLastModified() > loan.getLastModified());
+	}
+}
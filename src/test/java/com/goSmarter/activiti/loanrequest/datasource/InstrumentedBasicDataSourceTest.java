@@ -0,0 +1,48 @@
+package com.goSmarter.activiti.loanrequest.datasource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InstrumentedBasicDataSourceTest {
+
+	private InstrumentedBasicDataSource dataSource;
+
+	@Before
+	public void setup() {
+		dataSource = new InstrumentedBasicDataSource();
+		dataSource.setDriverClassName("org.h2.Driver");
+		dataSource.setUrl("jdbc:h2:mem:pooltest");
+		dataSource.setUsername("sa");
+		dataSource.setPassword("");
+		dataSource.setMaxActive(1);
+		dataSource.setMaxWait(50);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		dataSource.close();
+	}
+
+	@Test
+	public void testCountsRequestsAndTimeouts() throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			dataSource.getConnection();
+			fail("the pool has a single connection");
+		} catch (SQLException expected) {
+		} finally {
+			connection.close();
+		}
+
+		assertEquals(2, dataSource.getConnectionRequests());
+		assertEquals(1, dataSource.getConnectionTimeouts());
+		assertEquals(0, dataSource.getNumActive());
+	}
+}
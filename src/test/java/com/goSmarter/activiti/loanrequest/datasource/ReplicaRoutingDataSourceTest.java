@@ -0,0 +1,163 @@
+package com.goSmarter.activiti.loanrequest.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+
+public class ReplicaRoutingDataSourceTest {
+
+	private BasicDataSource primary;
+
+	private BasicDataSource replica;
+
+	private ReplicaRoutingDataSource routing;
+
+	@Before
+	public void setup() {
+		primary = database("routing-primary");
+		replica = database("routing-replica");
+		routing = new ReplicaRoutingDataSource();
+		routing.setPrimary(primary);
+		routing.setReplicas(Arrays.<DataSource> asList(replica));
+		routing.setHealthCheckIntervalMillis(0);
+		routing.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		routing.destroy();
+		primary.close();
+		replica.close();
+	}
+
+	@Test
+	public void testReadsGoToTheReplica() {
+		assertEquals("routing-primary", answeredBy());
+		routing.beginRead();
+		try {
+			assertEquals("routing-replica", answeredBy());
+		} finally {
+			routing.endRead();
+		}
+	}
+
+	@Test
+	public void testReadsAfterAWriteStayOnThePrimary() {
+		routing.wrote();
+		routing.beginRead();
+		try {
+			assertEquals("routing-primary", answeredBy());
+			routing.setStalenessWindowMillis(-1);
+			assertEquals("routing-replica", answeredBy());
+		} finally {
+			routing.endRead();
+		}
+	}
+
+	@Test
+	public void testWritesOnAnotherThreadCountForTheSameUser() throws InterruptedException {
+		// as LoanWorkflowJobHandler runs a user's job
+		Thread worker = new Thread() {
+			public void run() {
+				SecurityContextHolder.setContext(as("kermit"));
+				try {
+					routing.wrote();
+				} finally {
+					SecurityContextHolder.clearContext();
+				}
+			}
+		};
+		worker.start();
+		worker.join();
+
+		routing.beginRead();
+		try {
+			SecurityContextHolder.setContext(as("kermit"));
+			assertEquals("routing-primary", answeredBy());
+			SecurityContextHolder.setContext(as("fozzie"));
+			assertEquals("routing-replica", answeredBy());
+		} finally {
+			SecurityContextHolder.clearContext();
+			routing.endRead();
+		}
+	}
+
+	@Test
+	public void testFailsOverWhenTheReplicaIsDown() throws SQLException {
+		replica.close();
+		routing.beginRead();
+		try {
+			assertEquals("routing-primary", answeredBy());
+			assertEquals("routing-primary", answeredBy());
+		} finally {
+			routing.endRead();
+		}
+		assertEquals(1, routing.getFailovers());
+		assertEquals(0, routing.getReplicasUp());
+	}
+
+	@Test
+	public void testCallbacksCountAsWrites() throws Exception {
+		SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+		factory.setConfigLocation(new ClassPathResource("META-INF/spring/ibatis-config.xml"));
+		factory.setDataSource(routing);
+		factory.afterPropertiesSet();
+		ReadRoutingSqlMapClientTemplate template = new ReadRoutingSqlMapClientTemplate();
+		template.setSqlMapClient((SqlMapClient) factory.getObject());
+		template.setRoutingDataSource(routing);
+
+		// a batch insert, as the import runs it
+		template.execute(new SqlMapClientCallback() {
+			public Object doInSqlMapClient(SqlMapExecutor executor) {
+				return null;
+			}
+		});
+
+		routing.beginRead();
+		try {
+			assertEquals("routing-primary", answeredBy());
+		} finally {
+			routing.endRead();
+		}
+	}
+
+	private static SecurityContext as(String username) {
+		SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+		securityContext.setAuthentication(new UsernamePasswordAuthenticationToken(username, null));
+		return securityContext;
+	}
+
+	private String answeredBy() {
+		return new JdbcTemplate(routing).queryForObject("select NAME from WHO", String.class);
+	}
+
+	private static BasicDataSource database(String name) {
+		BasicDataSource dataSource = new BasicDataSource();
+		dataSource.setDriverClassName("org.h2.Driver");
+		dataSource.setUrl("jdbc:h2:mem:" + name);
+		dataSource.setUsername("sa");
+		dataSource.setPassword("");
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("create table WHO (NAME varchar(40))");
+		jdbcTemplate.update("insert into WHO values (?)", name);
+		return dataSource;
+	}
+}
@@ -0,0 +1,160 @@
+package com.goSmarter.activiti.loanrequest.datasource;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DataSourceInitializer;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.orm.ibatis.SqlMapClientCallback;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.ibatis.sqlmap.client.SqlMapClient;
+import com.ibatis.sqlmap.client.SqlMapExecutor;
+
+public class ShardedSqlMapClientTemplateTest {
+
+	private final List<BasicDataSource> databases = new ArrayList<BasicDataSource>();
+
+	private ShardedSqlMapClientTemplate template;
+
+	@Before
+	public void setup() throws Exception {
+		List<SqlMapClientTemplate> shards = new ArrayList<SqlMapClientTemplate>();
+		for (int i = 0; i < 3; i++) {
+			shards.add(shard("sharding-" + i));
+		}
+		template = new ShardedSqlMapClientTemplate();
+		template.setShards(shards);
+		template.afterPropertiesSet();
+		for (int id = 1; id <= 30; id++) {
+			template.insert("GoSmarter.loanRequestInsert", loan(id));
+		}
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		template.destroy();
+		for (BasicDataSource database : databases) {
+			database.close();
+		}
+	}
+
+	@Test
+	public void testLoansAreSpreadByIdAndFoundAgain() {
+		for (int i = 0; i < databases.size(); i++) {
+			int rows = new JdbcTemplate(databases.get(i)).queryForInt("SELECT COUNT(*) FROM LOANREQUEST");
+			assertEquals(true, rows > 0 && rows < 30);
+		}
+		LoanRequest loanRequest = (LoanRequest) template.queryForObject("GoSmarter.loanRequestDetails", 17);
+		assertEquals("customer17", loanRequest.getCustomerName());
+	}
+
+	@Test
+	public void testCountAddsUpTheShards() {
+		assertEquals(30, template.queryForObject("GoSmarter.loanRequestCount", null));
+	}
+
+	@Test
+	public void testListIsMergedInIdOrder() {
+		assertEquals(ids(1, 30), ids(template.queryForList("GoSmarter.loanRequestList", null)));
+	}
+
+	@Test
+	public void testPagesAreCutAfterMerging() {
+		Map<String, Object> page = new HashMap<String, Object>();
+		page.put("firstResult", 10);
+		page.put("maxResults", 5);
+		assertEquals(ids(11, 15), ids(template.queryForList("GoSmarter.loanRequestEntries", page)));
+
+		Map<String, Object> after = new HashMap<String, Object>();
+		after.put("afterId", 25);
+		after.put("maxResults", 10);
+		assertEquals(ids(26, 30), ids(template.queryForList("GoSmarter.loanRequestEntriesAfter", after)));
+	}
+
+	@Test
+	public void testIdListsAreSplitByShard() {
+		assertEquals(Arrays.asList(3, 4, 29), ids(template.queryForList("GoSmarter.loanRequestsByIds",
+				Arrays.asList(29, 3, 4))));
+
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("status", LoanRequest.APPROVED);
+		parameters.put("ids", Arrays.asList(1, 2, 3, 4));
+		assertEquals(4, template.update("GoSmarter.loanRequestStatusUpdate", parameters));
+	}
+
+	@Test
+	public void testBatchesAreSplitByShard() {
+		Object rows = template.execute(new SqlMapClientCallback() {
+			public Object doInSqlMapClient(SqlMapExecutor executor) throws SQLException {
+				executor.startBatch();
+				for (int id = 31; id <= 40; id++) {
+					executor.insert("GoSmarter.loanRequestInsert", loan(id));
+				}
+				return executor.executeBatch();
+			}
+		});
+		assertEquals(10, rows);
+		assertEquals(40, template.queryForObject("GoSmarter.loanRequestCount", null));
+	}
+
+	private SqlMapClientTemplate shard(String name) throws Exception {
+		BasicDataSource database = new BasicDataSource();
+		database.setDriverClassName("org.h2.Driver");
+		database.setUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+		database.setUsername("sa");
+		database.setPassword("");
+		databases.add(database);
+
+		ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+		populator.addScript(new ClassPathResource("META-INF/spring/SourceDB.sql"));
+		DataSourceInitializer initializer = new DataSourceInitializer();
+		initializer.setDataSource(database);
+		initializer.setDatabasePopulator(populator);
+		initializer.afterPropertiesSet();
+
+		SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+		factory.setConfigLocation(new ClassPathResource("META-INF/spring/ibatis-config.xml"));
+		factory.setDataSource(database);
+		factory.afterPropertiesSet();
+		return new SqlMapClientTemplate((SqlMapClient) factory.getObject());
+	}
+
+	private static LoanRequest loan(int id) {
+		LoanRequest loanRequest = new LoanRequest();
+		loanRequest.setId(id);
+		loanRequest.setCustomerName("customer" + id);
+		loanRequest.setAmount(1000d);
+		return loanRequest;
+	}
+
+	private static List<Integer> ids(int first, int last) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int id = first; id <= last; id++) {
+			ids.add(id);
+		}
+		return ids;
+	}
+
+	private static List<Integer> ids(List<?> loanRequests) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (Object loanRequest : loanRequests) {
+			ids.add(((LoanRequest) loanRequest).getId());
+		}
+		return ids;
+	}
+}
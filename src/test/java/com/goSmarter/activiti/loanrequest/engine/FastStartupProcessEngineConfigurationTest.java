@@ -0,0 +1,23 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+public class FastStartupProcessEngineConfigurationTest {
+
+	@Test
+	public void testFingerprintFollowsContent() throws Exception {
+		Resource[] resources = { new ByteArrayResource("<definitions/>".getBytes("UTF-8")) };
+		Resource[] same = { new ByteArrayResource("<definitions/>".getBytes("UTF-8")) };
+		Resource[] changed = { new ByteArrayResource("<definitions id=\"2\"/>".getBytes("UTF-8")) };
+
+		String fingerprint = FastStartupProcessEngineConfiguration.fingerprint(resources);
+		assertEquals(40, fingerprint.length());
+		assertEquals(fingerprint, FastStartupProcessEngineConfiguration.fingerprint(same));
+		assertFalse(fingerprint.equals(FastStartupProcessEngineConfiguration.fingerprint(changed)));
+	}
+}
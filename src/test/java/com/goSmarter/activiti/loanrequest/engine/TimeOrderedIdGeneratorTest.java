@@ -0,0 +1,56 @@
+package com.goSmarter.activiti.loanrequest.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TimeOrderedIdGeneratorTest {
+
+	@Test
+	public void testIdsAreVersion7UuidsInCreationOrder() {
+		TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+		String previous = generator.getNextId();
+		for (int i = 0; i < 10000; i++) {
+			String id = generator.getNextId();
+			assertEquals(36, id.length());
+			assertEquals(7, UUID.fromString(id).version());
+			assertTrue(id.compareTo(previous) > 0);
+			previous = id;
+		}
+	}
+
+	@Test
+	public void testNodesWriteTheirOwnStripe() {
+		String first = new TimeOrderedIdGenerator(1).getNextId();
+		String second = new TimeOrderedIdGenerator(2).getNextId();
+		assertTrue(!first.substring(19).equals(second.substring(19)));
+	}
+
+	@Test
+	public void testIdsAreUniqueAcrossThreads() throws InterruptedException {
+		final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+		final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			executor.execute(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 10000; i++) {
+						ids.add(generator.getNextId());
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		assertEquals(80000, ids.size());
+	}
+}
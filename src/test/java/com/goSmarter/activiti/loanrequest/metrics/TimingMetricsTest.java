@@ -0,0 +1,36 @@
+package com.goSmarter.activiti.loanrequest.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TimingMetricsTest {
+
+	@Test
+	public void testRecordsCountFailuresAndPercentiles() {
+		TimingMetrics metrics = new TimingMetrics();
+		for (int i = 1; i <= 100; i++) {
+			metrics.record("command.StartProcessInstanceCmd", TimeUnit.MILLISECONDS.toNanos(i), i == 100);
+		}
+
+		Map<String, Long> timing = metrics.snapshot().get("command.StartProcessInstanceCmd");
+		assertEquals(100L, timing.get("count").longValue());
+		assertEquals(1L, timing.get("failures").longValue());
+		assertTrue(Math.abs(timing.get("p50Micros") - 50000) < 100);
+		assertTrue(Math.abs(timing.get("maxMicros") - 100000) < 100);
+	}
+
+	@Test
+	public void testResetForgetsEverything() {
+		TimingMetrics metrics = new TimingMetrics();
+		metrics.record("statement.GoSmarter.loanRequestDetails", 1000, false);
+		metrics.reset();
+
+		assertTrue(metrics.snapshot().isEmpty());
+		assertEquals(0, metrics.getTimings().length);
+	}
+}
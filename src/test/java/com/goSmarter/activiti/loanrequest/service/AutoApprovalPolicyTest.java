@@ -0,0 +1,49 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+
+public class AutoApprovalPolicyTest {
+
+	@Test
+	public void testAmountThreshold() {
+		AutoApprovalPolicy policy = policy(500, "");
+		assertTrue(policy.approves(500d, "Fozzie"));
+		assertFalse(policy.approves(500.01d, "Fozzie"));
+		assertFalse(policy.approves(null, "Fozzie"));
+	}
+
+	@Test
+	public void testRule() {
+		AutoApprovalPolicy policy = policy(1000, "customerName != null and !customerName.isEmpty()");
+		assertTrue(policy.approves(10d, "Fozzie"));
+		assertFalse(policy.approves(10d, ""));
+		assertFalse(policy.approves(10d, null));
+		assertFalse(policy.approves(2000d, "Fozzie"));
+	}
+
+	@Test
+	public void testVariablesOnlyWhenEnabled() {
+		LoanRequest loanRequest = new LoanRequest();
+		loanRequest.setAmount(10d);
+		loanRequest.setCustomerName("Fozzie");
+		AutoApprovalPolicy policy = policy(1000, "");
+		assertEquals(2, policy.variables(loanRequest).size());
+		policy.enabled = false;
+		assertTrue(policy.variables(loanRequest).isEmpty());
+	}
+
+	private AutoApprovalPolicy policy(double maxAmount, String rule) {
+		AutoApprovalPolicy policy = new AutoApprovalPolicy();
+		policy.enabled = true;
+		policy.maxAmount = maxAmount;
+		policy.rule = rule;
+		policy.parseRule();
+		return policy;
+	}
+}
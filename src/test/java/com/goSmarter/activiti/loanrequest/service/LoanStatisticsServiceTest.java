@@ -0,0 +1,198 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.DataSourceInitializer;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.orm.ibatis.SqlMapClientFactoryBean;
+import org.springframework.orm.ibatis.SqlMapClientTemplate;
+
+import com.goSmarter.activiti.loanrequest.datasource.ShardedSqlMapClientTemplate;
+import com.goSmarter.activiti.loanrequest.domain.LoanRequest;
+import com.ibatis.sqlmap.client.SqlMapClient;
+
+public class LoanStatisticsServiceTest {
+
+	private final List<BasicDataSource> databases = new ArrayList<BasicDataSource>();
+
+	private BasicDataSource database;
+
+	private SqlMapClientTemplate ibatisTemplate;
+
+	private LoanStatisticsService statistics;
+
+	@Before
+	public void setup() throws Exception {
+		ibatisTemplate = template("loan-statistics");
+		database = databases.get(0);
+
+		statistics = new LoanStatisticsService();
+		statistics.ibatisTemplate = ibatisTemplate;
+		statistics.stripes = 4;
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		for (BasicDataSource database : databases) {
+			database.close();
+		}
+	}
+
+	@Test
+	public void testCountersFollowTheLoans() {
+		for (int id = 1; id <= 10; id++) {
+			statistics.added(insert(id, LoanRequest.AWAITING_APPROVAL, 100d));
+		}
+		LoanRequest loanRequest = insert(11, LoanRequest.AWAITING_APPROVAL, 100d);
+		statistics.added(loanRequest);
+		statistics.moved(loanRequest, LoanRequest.AWAITING_APPROVAL, LoanRequest.APPROVED);
+		loanRequest.setStatus(LoanRequest.APPROVED);
+		statistics.amountChanged(loanRequest, 250d);
+
+		assertTotals(LoanRequest.AWAITING_APPROVAL, 10, 1000);
+		assertTotals(LoanRequest.APPROVED, 1, 250);
+		assertTotals(LoanRequest.SUBMITTED, 0, 0);
+	}
+
+	@Test
+	public void testReconcileCorrectsConfirmedDrift() {
+		for (int id = 1; id <= 5; id++) {
+			statistics.added(insert(id, LoanRequest.SUBMITTED, 10d));
+		}
+		// a loan the counters never heard of
+		insert(6, LoanRequest.SUBMITTED, 10d);
+
+		statistics.reconcile();
+		assertTotals(LoanRequest.SUBMITTED, 5, 50);
+		statistics.reconcile();
+		assertTotals(LoanRequest.SUBMITTED, 6, 60);
+		assertEquals(1, statistics.getCorrections());
+	}
+
+	@Test
+	public void testNodesDoNotCorrectTwice() {
+		LoanStatisticsService otherNode = new LoanStatisticsService();
+		otherNode.ibatisTemplate = ibatisTemplate;
+		otherNode.stripes = 4;
+		statistics.added(insert(1, LoanRequest.SUBMITTED, 10d));
+		insert(2, LoanRequest.SUBMITTED, 10d);
+
+		statistics.reconcile();
+		otherNode.reconcile();
+		statistics.reconcile();
+		assertTotals(LoanRequest.SUBMITTED, 2, 20);
+
+		// the other node confirmed the same drift before this correction
+		// committed; under the lock it finds nothing left to correct
+		assertFalse(otherNode.correct(LoanRequest.SUBMITTED, 1, BigDecimal.valueOf(10d)));
+		otherNode.reconcile();
+		assertTotals(LoanRequest.SUBMITTED, 2, 20);
+		assertEquals(1, statistics.getCorrections());
+		assertEquals(0, otherNode.getCorrections());
+	}
+
+	@Test
+	public void testNodesDoNotCorrectTwiceOnShards() throws Exception {
+		ShardedSqlMapClientTemplate sharded = new ShardedSqlMapClientTemplate();
+		sharded.setShards(Arrays.asList(template("loan-statistics-shard-0"), template("loan-statistics-shard-1")));
+		sharded.afterPropertiesSet();
+		try {
+			statistics.ibatisTemplate = sharded;
+			LoanStatisticsService otherNode = new LoanStatisticsService();
+			otherNode.ibatisTemplate = sharded;
+			otherNode.stripes = 4;
+			// none of the loans is in stripe 0, so the lock has to create its row
+			statistics.added(insert(sharded, 1, LoanRequest.APPROVED, 10d));
+			statistics.added(insert(sharded, 2, LoanRequest.APPROVED, 10d));
+			insert(sharded, 3, LoanRequest.APPROVED, 10d);
+
+			statistics.reconcile();
+			otherNode.reconcile();
+			statistics.reconcile();
+			assertTotals(LoanRequest.APPROVED, 3, 30);
+
+			assertFalse(otherNode.correct(LoanRequest.APPROVED, 1, BigDecimal.valueOf(10d)));
+			otherNode.reconcile();
+			assertTotals(LoanRequest.APPROVED, 3, 30);
+			assertEquals(1, statistics.getCorrections());
+			assertEquals(0, otherNode.getCorrections());
+
+			// the lock row and the correction live on shard 0 only
+			assertEquals(1, new JdbcTemplate(databases.get(1)).queryForInt(
+					"select count(*) from LOANSTATS where STATUS = ? and STRIPE = 0", LoanRequest.APPROVED));
+			assertEquals(0, new JdbcTemplate(databases.get(2)).queryForInt(
+					"select count(*) from LOANSTATS where STATUS = ? and STRIPE = 0", LoanRequest.APPROVED));
+		} finally {
+			sharded.destroy();
+		}
+	}
+
+	private SqlMapClientTemplate template(String name) throws Exception {
+		BasicDataSource database = new BasicDataSource();
+		database.setDriverClassName("org.h2.Driver");
+		database.setUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+		database.setUsername("sa");
+		database.setPassword("");
+		databases.add(database);
+
+		ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+		populator.addScript(new ClassPathResource("META-INF/spring/SourceDB.sql"));
+		DataSourceInitializer initializer = new DataSourceInitializer();
+		initializer.setDataSource(database);
+		initializer.setDatabasePopulator(populator);
+		initializer.afterPropertiesSet();
+
+		SqlMapClientFactoryBean factory = new SqlMapClientFactoryBean();
+		factory.setConfigLocation(new ClassPathResource("META-INF/spring/ibatis-config.xml"));
+		factory.setDataSource(database);
+		factory.afterPropertiesSet();
+		return new SqlMapClientTemplate((SqlMapClient) factory.getObject());
+	}
+
+	private LoanRequest insert(SqlMapClientTemplate template, int id, String status, Double amount) {
+		LoanRequest loanRequest = new LoanRequest();
+		loanRequest.setId(id);
+		loanRequest.setCustomerName("customer" + id);
+		loanRequest.setAmount(amount);
+		loanRequest.setProcessId("");
+		loanRequest.setStatus(status);
+		template.insert("GoSmarter.loanRequestInsert", loanRequest);
+		return loanRequest;
+	}
+
+	private LoanRequest insert(int id, String status, Double amount) {
+		new JdbcTemplate(database).update(
+				"insert into LOANREQUEST (ID, CUSTOMERNAME, AMOUNT, PROCESSID, STATUS) values (?, ?, ?, '', ?)",
+				id, "customer" + id, amount, status);
+		LoanRequest loanRequest = new LoanRequest();
+		loanRequest.setId(id);
+		loanRequest.setCustomerName("customer" + id);
+		loanRequest.setAmount(amount);
+		loanRequest.setStatus(status);
+		return loanRequest;
+	}
+
+	private void assertTotals(String status, long loans, long amount) {
+		for (LoanStatistics statistic : statistics.statistics()) {
+			if (statistic.getStatus().equals(status)) {
+				assertEquals(loans, statistic.getLoans());
+				assertEquals(0, BigDecimal.valueOf(amount).compareTo(statistic.getAmount()));
+				return;
+			}
+		}
+		throw new AssertionError("no statistics for " + status);
+	}
+}
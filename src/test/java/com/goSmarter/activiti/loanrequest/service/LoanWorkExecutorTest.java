@@ -0,0 +1,61 @@
+package com.goSmarter.activiti.loanrequest.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoanWorkExecutorTest {
+
+	private LoanWorkExecutor executor;
+
+	@Before
+	public void setup() {
+		executor = new LoanWorkExecutor();
+		executor.maxConcurrent = 1;
+		executor.waitMillis = 10;
+		executor.start();
+	}
+
+	@Test
+	public void testRunsWorkOnTheCallingThread() {
+		final Thread[] ranOn = new Thread[1];
+		executor.run(new Runnable() {
+			public void run() {
+				ranOn[0] = Thread.currentThread();
+			}
+		});
+		assertSame(Thread.currentThread(), ranOn[0]);
+		assertEquals(0, executor.getRunning());
+	}
+
+	@Test
+	public void testRejectsWhenSaturated() {
+		executor.run(new Runnable() {
+			public void run() {
+				assertEquals(1, executor.getRunning());
+				try {
+					executor.run(new Runnable() {
+						public void run() {
+						}
+					});
+					fail("the only slot is taken");
+				} catch (LoanWorkRejectedException expected) {
+				}
+			}
+		});
+		assertEquals(1, executor.getRejected());
+		assertEquals(0, executor.getRunning());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRethrowsFailures() {
+		executor.run(new Runnable() {
+			public void run() {
+				throw new IllegalStateException("failed");
+			}
+		});
+	}
+}
@@ -15,16 +15,22 @@ package com.goSmarter.activiti.loanrequest.web;
 import static com.goSmarter.activiti.loanrequest.web.SecurityRequestPostProcessors.user;
 import static com.goSmarter.activiti.loanrequest.web.SecurityRequestPostProcessors.userDeatilsService;
 import static org.hamcrest.Matchers.any;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.hasProperty;
+import static org.hamcrest.Matchers.not;
 import static org.springframework.test.web.server.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.server.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.server.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.server.result.MockMvcResultMatchers.forwardedUrl;
 import static org.springframework.test.web.server.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.server.result.MockMvcResultMatchers.redirectedUrl;
 import static org.springframework.test.web.server.result.MockMvcResultMatchers.status;
 
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.servlet.http.HttpSession;
@@ -34,12 +40,14 @@ import junit.framework.Assert;
 import org.activiti.engine.IdentityService;
 import org.activiti.engine.ProcessEngine;
 import org.activiti.engine.identity.User;
-import org.activiti.spring.SpringProcessEngineConfiguration;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.web.FilterChainProxy;
 import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
@@ -51,6 +59,10 @@ import org.springframework.test.web.server.ResultMatcher;
 import org.springframework.test.web.server.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
+import com.goSmarter.activiti.loanrequest.service.AutoApprovalPolicy;
+import com.goSmarter.activiti.loanrequest.service.LoanWorkExecutor;
+import com.goSmarter.activiti.loanrequest.service.LoanWorkRejectedException;
+
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration(loader = WebContextLoader.class, value = {
 		"classpath:META-INF/spring/applicationContext-activiti.xml",
@@ -68,7 +80,13 @@ public class LoanRequestControllerTest {
 	private WebApplicationContext wac;
 
 	@Autowired
-	SpringProcessEngineConfiguration processEngineConfiguration;
+	ProcessEngine processEngine;
+
+	@Autowired
+	LoanRequestController loanRequestController;
+
+	@Autowired
+	AutoApprovalPolicy autoApprovalPolicy;
 	
 	private MockMvc mockMvc;
 
@@ -76,8 +94,6 @@ public class LoanRequestControllerTest {
 	public void setup() {
 		this.mockMvc = MockMvcBuilders.webApplicationContextSetup(this.wac)
 				.addFilters(this.springSecurityFilterChain).build();
-		
-        ProcessEngine processEngine = processEngineConfiguration.buildProcessEngine();
 
         IdentityService identityService = processEngine.getIdentityService();
         User user = identityService.newUser("fozzie");
@@ -96,8 +112,6 @@ public class LoanRequestControllerTest {
 
 	@After
 	public void tearDown() throws Exception {
-        ProcessEngine processEngine = processEngineConfiguration.buildProcessEngine();
-
         IdentityService identityService = processEngine.getIdentityService();	
 		identityService.deleteUser("fozzie");
 		identityService.deleteUser("kermit");
@@ -174,6 +188,16 @@ public class LoanRequestControllerTest {
 	}
 
 
+	@Test
+	public void testListPageSizeIsCapped() throws Exception {
+		mockMvc.perform(
+				get("/loanrequests/list").param("size", "100000")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(model().attribute("size", 100))
+				.andExpect(model().attribute("loanRequests", any(List.class)));
+	}
+
 	@Test
 	public void testInsert() throws Exception {
 		mockMvc.perform(
@@ -201,7 +225,59 @@ public class LoanRequestControllerTest {
 								hasProperty("customerName", equalTo("krishna"))))
 				.andExpect(
 						model().attribute("loanRequest",
-								hasProperty("processId", notNullValue())));
+								hasProperty("processId", notNullValue())))
+				.andExpect(
+						model().attribute("loanRequest",
+								hasProperty("processId", not(equalTo("")))))
+				.andExpect(
+						model().attribute("loanRequest",
+								hasProperty("status", equalTo("AWAITING_APPROVAL"))));
+	}
+
+	@Test
+	public void testBulkCreate() throws Exception {
+		String csv = "id,customerName,amount\n10,krishna,26\n11,\"smith, john\",30\nx,broken,1\n";
+		mockMvc.perform(
+				post("/loanrequests/bulk").contentType(MediaType.valueOf("text/csv"))
+						.body(csv.getBytes("UTF-8"))
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"imported\":2")))
+				.andExpect(content().string(containsString("\"failed\":1")))
+				.andExpect(content().string(containsString("\"index\":4")));
+
+		mockMvc.perform(
+				get("/loanrequests/show/11").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(
+						model().attribute("loanRequest",
+								hasProperty("customerName", equalTo("smith, john"))));
+
+		// 10 exists, so the chunk's batch fails after inserting 12; the retry
+		// must not trip over the row the failed batch left behind
+		csv = "12,first,1\n10,duplicate,2\n13,third,3\n";
+		mockMvc.perform(
+				post("/loanrequests/bulk").contentType(MediaType.valueOf("text/csv"))
+						.body(csv.getBytes("UTF-8"))
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"imported\":2")))
+				.andExpect(content().string(containsString("\"failed\":1")))
+				.andExpect(content().string(containsString("\"index\":2")))
+				.andExpect(content().string(containsString("\"loanId\":10")));
+
+		mockMvc.perform(
+				get("/loanrequests/show/10").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(
+						model().attribute("loanRequest",
+								hasProperty("customerName", equalTo("krishna"))));
+		mockMvc.perform(
+				get("/loanrequests/show/12").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(
+						model().attribute("loanRequest",
+								hasProperty("customerName", equalTo("first"))));
 	}
 
 	@Test
@@ -235,6 +311,328 @@ public class LoanRequestControllerTest {
 				.andExpect(status().isOk());
 	}
 
+	@Test
+	public void testApproveAll() throws Exception {
+		mockMvc.perform(
+				post("/loanrequests/create").param("id", "5")
+						.param("customerName", "krishna").param("amount", "26")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(redirectedUrl("/list"));
+
+		mockMvc.perform(
+				post("/loanrequestsapproval/approve").param("ids", "5", "999")
+						.with(userDeatilsService("kermit")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"loanId\":5,\"status\":\"APPROVED\"")))
+				.andExpect(content().string(containsString("\"loanId\":999,\"status\":\"NOT_FOUND\"")));
+
+		// the verify task is gone now
+		mockMvc.perform(
+				post("/loanrequestsapproval/approve").param("ids", "5")
+						.with(userDeatilsService("kermit")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"loanId\":5,\"status\":\"NO_TASK\"")));
+	}
+
+	@Test
+	public void testConditionalGet() throws Exception {
+		mockMvc.perform(
+				post("/loanrequests/create").param("id", "40")
+						.param("customerName", "krishna").param("amount", "26")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(redirectedUrl("/list"));
+
+		String etag = mockMvc.perform(
+				get("/loanrequests/show/40").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andReturn().getResponse().getHeader("ETag");
+
+		mockMvc.perform(
+				get("/loanrequests/show/40").header("If-None-Match", etag)
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isNotModified());
+
+		mockMvc.perform(
+				post("/loanrequests/update").param("id", "40")
+						.param("customerName", "changed").param("amount", "27")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(redirectedUrl("/list"));
+
+		mockMvc.perform(
+				get("/loanrequests/show/40").header("If-None-Match", etag)
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(
+						model().attribute("loanRequest",
+								hasProperty("customerName", equalTo("changed"))));
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		mockMvc.perform(
+				post("/loanrequests/create").param("id", "30")
+						.param("customerName", "smith, john").param("amount", "26")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(redirectedUrl("/list"));
+
+		mockMvc.perform(
+				get("/loanrequests/export").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"customerName\":\"smith, john\"")));
+
+		mockMvc.perform(
+				get("/loanrequests/export").param("format", "csv")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("30,\"smith, john\",26.0,")));
+	}
+
+	@Test
+	public void testInbox() throws Exception {
+		String csv = "id,customerName,amount\n20,inbox,26\n21,inbox,27\n";
+		mockMvc.perform(
+				post("/loanrequests/bulk").contentType(MediaType.valueOf("text/csv"))
+						.body(csv.getBytes("UTF-8"))
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk());
+
+		JsonNode inbox = json(mockMvc.perform(
+				get("/loanrequestsapproval/inbox").param("size", "100")
+						.with(userDeatilsService("kermit")))
+				.andExpect(status().isOk()).andReturn());
+		JsonNode pending = null;
+		for (JsonNode approval : inbox) {
+			if (approval.path("loanId").asInt() == 20) {
+				pending = approval;
+			}
+		}
+		Assert.assertNotNull("loan 20 is in the inbox", pending);
+		Assert.assertEquals("inbox", pending.path("customerName").asText());
+		Assert.assertEquals(26d, pending.path("amount").asDouble(), 0d);
+		Assert.assertFalse(pending.path("taskId").asText().isEmpty());
+
+		JsonNode first = json(mockMvc.perform(
+				get("/loanrequestsapproval/inbox").param("size", "1")
+						.with(userDeatilsService("kermit")))
+				.andExpect(status().isOk()).andReturn());
+		JsonNode second = json(mockMvc.perform(
+				get("/loanrequestsapproval/inbox").param("page", "2").param("size", "1")
+						.with(userDeatilsService("kermit")))
+				.andExpect(status().isOk()).andReturn());
+		Assert.assertEquals(1, first.size());
+		Assert.assertEquals(1, second.size());
+		Assert.assertFalse(first.get(0).path("taskId").equals(second.get(0).path("taskId")));
+
+		mockMvc.perform(
+				get("/loanrequestsapproval/inbox").with(userDeatilsService("fozzie")))
+				.andExpect(status().isForbidden());
+	}
+
+	@Test
+	public void testSearch() throws Exception {
+		mockMvc.perform(
+				post("/loanrequests/create").param("id", "60")
+						.param("customerName", "Searchable Ltd").param("amount", "26")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(redirectedUrl("/list"));
+
+		mockMvc.perform(
+				get("/loanrequests/search").param("q", "sEaRcH")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"customerName\":\"Searchable Ltd\"")));
+
+		mockMvc.perform(
+				get("/loanrequests/search").param("q", "searchablez")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(not(containsString("Searchable Ltd"))));
+	}
+
+	@Test
+	public void testSearchPages() throws Exception {
+		String[] names = { "Pager A", "Pager B", "Pager C" };
+		for (int i = 0; i < names.length; i++) {
+			mockMvc.perform(
+					post("/loanrequests/create").param("id", String.valueOf(61 + i))
+							.param("customerName", names[i]).param("amount", "26")
+							.with(userDeatilsService("fozzie")))
+					.andExpect(redirectedUrl("/list"));
+		}
+
+		mockMvc.perform(
+				get("/loanrequests/search").param("q", "pager").param("size", "2")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"customerName\":\"Pager B\"")))
+				.andExpect(content().string(not(containsString("Pager C"))))
+				.andExpect(content().string(containsString("\"nextAfterKey\":\"PAGER B\"")))
+				.andExpect(content().string(containsString("\"nextAfterId\":62")));
+
+		mockMvc.perform(
+				get("/loanrequests/search").param("q", "pager").param("size", "2")
+						.param("afterKey", "PAGER B").param("afterId", "62")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"customerName\":\"Pager C\"")))
+				.andExpect(content().string(not(containsString("Pager A"))))
+				.andExpect(content().string(containsString("\"nextAfterId\":null")));
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		JsonNode before = awaitingApproval();
+
+		mockMvc.perform(
+				post("/loanrequests/create").param("id", "50")
+						.param("customerName", "krishna").param("amount", "26")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(redirectedUrl("/list"));
+
+		JsonNode after = awaitingApproval();
+		Assert.assertEquals(before.path("loans").asLong() + 1, after.path("loans").asLong());
+		Assert.assertEquals(0, before.path("amount").getDecimalValue().add(BigDecimal.valueOf(26))
+				.compareTo(after.path("amount").getDecimalValue()));
+
+		mockMvc.perform(
+				get("/loanrequestsapproval/statistics").with(userDeatilsService("fozzie")))
+				.andExpect(status().isForbidden());
+	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		mockMvc.perform(
+				get("/loanrequests/list").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk());
+
+		JsonNode metrics = json(mockMvc.perform(
+				get("/metrics").with(userDeatilsService("kermit")))
+				.andExpect(status().isOk()).andReturn());
+		Assert.assertTrue(metrics.path("statement.GoSmarter.loanRequestEntriesAfter").path("count").asLong() >= 1);
+		// the identity commands run by setup go through the engine interceptor
+		boolean commandTimed = false;
+		for (Iterator<String> names = metrics.getFieldNames(); names.hasNext();) {
+			String name = names.next();
+			if (name.startsWith("command.") && metrics.path(name).path("count").asLong() >= 1) {
+				commandTimed = true;
+			}
+		}
+		Assert.assertTrue(commandTimed);
+
+		mockMvc.perform(
+				get("/metrics").with(userDeatilsService("fozzie")))
+				.andExpect(status().isForbidden());
+	}
+
+	@Test
+	public void testAsyncApproveStatus() throws Exception {
+		mockMvc.perform(
+				post("/loanrequests/create").param("id", "70")
+						.param("customerName", "krishna").param("amount", "26")
+						.with(userDeatilsService("fozzie")))
+				.andExpect(redirectedUrl("/list"));
+
+		loanRequestController.async = true;
+		try {
+			mockMvc.perform(
+					get("/loanrequestsapproval/approve/70").with(userDeatilsService("kermit")))
+					.andExpect(redirectedUrl("/loanrequests/status/70"));
+		} finally {
+			loanRequestController.async = false;
+		}
+
+		mockMvc.perform(
+				get("/loanrequests/status/70").with(userDeatilsService("kermit")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"id\":70")));
+		mockMvc.perform(
+				get("/loanrequests/status/70").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk());
+	}
+
+	@Test
+	public void testWorkRejected() throws Exception {
+		LoanWorkExecutor loanWorkExecutor = loanRequestController.loanWorkExecutor;
+		loanRequestController.workExecutorEnabled = true;
+		loanRequestController.loanWorkExecutor = new LoanWorkExecutor() {
+			public void run(Runnable work) {
+				throw new LoanWorkRejectedException("too many loan requests in progress, try again later");
+			}
+		};
+		try {
+			mockMvc.perform(
+					post("/loanrequests/create").param("id", "80")
+							.param("customerName", "krishna").param("amount", "26")
+							.with(userDeatilsService("fozzie")))
+					.andExpect(status().isServiceUnavailable());
+		} finally {
+			loanRequestController.workExecutorEnabled = false;
+			loanRequestController.loanWorkExecutor = loanWorkExecutor;
+		}
+	}
+
+	@Test
+	public void testWorkAdmitted() throws Exception {
+		loanRequestController.workExecutorEnabled = true;
+		try {
+			mockMvc.perform(
+					post("/loanrequests/create").param("id", "81")
+							.param("customerName", "krishna").param("amount", "26")
+							.with(userDeatilsService("fozzie")))
+					.andExpect(redirectedUrl("/list"));
+			mockMvc.perform(
+					get("/loanrequestsapproval/approve/81").with(userDeatilsService("kermit")))
+					.andExpect(redirectedUrl("/list"));
+		} finally {
+			loanRequestController.workExecutorEnabled = false;
+		}
+
+		mockMvc.perform(
+				get("/loanrequests/status/81").with(userDeatilsService("kermit")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"status\":\"APPROVED\"")));
+	}
+
+	@Test
+	public void testAutoApproval() throws Exception {
+		autoApprovalPolicy.setEnabled(true);
+		try {
+			mockMvc.perform(
+					post("/loanrequests/create").param("id", "90")
+							.param("customerName", "krishna").param("amount", "500")
+							.with(userDeatilsService("fozzie")))
+					.andExpect(status().isOk()).andExpect(redirectedUrl("/list"));
+			mockMvc.perform(
+					post("/loanrequests/create").param("id", "91")
+							.param("customerName", "krishna").param("amount", "5000")
+							.with(userDeatilsService("fozzie")))
+					.andExpect(status().isOk()).andExpect(redirectedUrl("/list"));
+		} finally {
+			autoApprovalPolicy.setEnabled(false);
+		}
+
+		// straight through the gateway: approved, no verify task
+		mockMvc.perform(
+				get("/loanrequests/status/90").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"status\":\"APPROVED\"")))
+				.andExpect(content().string(containsString("\"task\":null")));
+
+		// above maxAmount: waits for a manager
+		mockMvc.perform(
+				get("/loanrequests/status/91").with(userDeatilsService("fozzie")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"status\":\"AWAITING_APPROVAL\"")))
+				.andExpect(content().string(containsString("\"task\":\"Verify loan request\"")));
+
+		mockMvc.perform(
+				get("/loanrequestsapproval/inbox").param("size", "100")
+						.with(userDeatilsService("kermit")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(not(containsString("\"loanId\":90,"))))
+				.andExpect(content().string(containsString("\"loanId\":91,")));
+	}
+
 	@Test
 	public void testApproveForbidden() throws Exception {
 		mockMvc.perform(
@@ -242,4 +640,21 @@ public class LoanRequestControllerTest {
 				.andExpect(status().isForbidden());
 	}
 
+	/** The AWAITING_APPROVAL entry of the statistics, as a manager sees them. */
+	private JsonNode awaitingApproval() throws Exception {
+		JsonNode statistics = json(mockMvc.perform(
+				get("/loanrequestsapproval/statistics").with(userDeatilsService("kermit")))
+				.andExpect(status().isOk()).andReturn());
+		for (JsonNode statistic : statistics) {
+			if ("AWAITING_APPROVAL".equals(statistic.path("status").asText())) {
+				return statistic;
+			}
+		}
+		throw new AssertionError("no statistics for AWAITING_APPROVAL");
+	}
+
+	private static JsonNode json(MvcResult result) throws IOException {
+		return new ObjectMapper().readTree(result.getResponse().getContentAsString());
+	}
+
 }
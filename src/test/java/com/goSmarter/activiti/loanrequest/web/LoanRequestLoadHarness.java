@@ -0,0 +1,299 @@
+package com.goSmarter.activiti.loanrequest.web;
+
+import static com.goSmarter.activiti.loanrequest.web.SecurityRequestPostProcessors.userDeatilsService;
+import static org.springframework.test.web.server.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.server.request.MockMvcRequestBuilders.post;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.Histogram;
+import org.activiti.engine.ActivitiOptimisticLockingException;
+import org.activiti.engine.IdentityService;
+import org.activiti.engine.ProcessEngine;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.web.FilterChainProxy;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.web.server.MockMvc;
+import org.springframework.test.web.server.RequestBuilder;
+import org.springframework.test.web.server.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.goSmarter.activiti.loanrequest.benchmark.BenchmarkSupport;
+
+/**
+ * Drives a mix of list, show, create, update and approve requests through
+ * the secured MVC endpoints from a growing number of concurrent users, with
+ * the same wiring as {@link LoanRequestControllerTest}. For every
+ * concurrency level it prints throughput and p50/p99/p999 latency per
+ * endpoint, and the contention failures: two approvers claiming the same
+ * task, and optimistic locking conflicts in the engine.
+ *
+ * Approvers pick among the most recently created loans, so they compete for
+ * the same tasks the way a team working one inbox does.
+ *
+ * Not part of the unit test run; start it with
+ * <pre>
+ * mvn test -Dtest=LoanRequestLoadHarness -Dload.users=1,4,16,64 \
+ *     -Dload.mix=list:30,show:30,create:20,update:10,approve:10 \
+ *     -Dload.seconds=20 -Dload.warmUpSeconds=5
+ * </pre>
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(loader = WebContextLoader.class, value = {
+		"classpath:META-INF/spring/applicationContext-activiti.xml",
+		"classpath:META-INF/spring/applicationContext-security.xml",
+		"classpath:META-INF/spring/applicationContext.xml",
+		"classpath:META-INF/spring/test-datasource-config.xml"})
+public class LoanRequestLoadHarness {
+
+	private static final String[] endpoints = { "list", "show", "create", "update", "approve" };
+
+	/** Latencies above this are recorded as this, in microseconds. */
+	private static final long maxLatency = TimeUnit.SECONDS.toMicros(60);
+
+	/** How many of the latest loans the approvers compete for. */
+	private static final int approvalWindow = 20;
+
+	@Autowired
+	private FilterChainProxy springSecurityFilterChain;
+
+	@Autowired
+	private WebApplicationContext wac;
+
+	@Autowired
+	ProcessEngine processEngine;
+
+	private MockMvc mockMvc;
+
+	private final AtomicInteger nextId = new AtomicInteger(100000);
+
+	private final int firstId = nextId.get() + 1;
+
+	@Before
+	public void setup() {
+		this.mockMvc = MockMvcBuilders.webApplicationContextSetup(this.wac)
+				.addFilters(this.springSecurityFilterChain).build();
+
+		BenchmarkSupport.createUsers(processEngine.getIdentityService());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		IdentityService identityService = processEngine.getIdentityService();
+		identityService.deleteUser("fozzie");
+		identityService.deleteUser("kermit");
+		identityService.deleteGroup("accountancy");
+		identityService.deleteGroup("management");
+	}
+
+	@Test
+	public void run() throws Exception {
+		int[] users = parseInts(System.getProperty("load.users", "1,2,4,8,16,32"));
+		int[] mix = parseMix(System.getProperty("load.mix", "list:30,show:30,create:20,update:10,approve:10"));
+		long seconds = Long.getLong("load.seconds", 20);
+		long warmUpSeconds = Long.getLong("load.warmUpSeconds", 5);
+		int seedLoans = Integer.getInteger("load.seedLoans", 100);
+
+		Random random = new Random();
+		for (int i = 0; i < seedLoans; i++) {
+			perform(2, random);
+		}
+		System.out.println("users\tendpoint\trequests\treq/s\tp50 (us)\tp99 (us)\tp999 (us)\tmax (us)\terrors");
+		for (int level : users) {
+			run(level, mix, warmUpSeconds);
+			Result result = run(level, mix, seconds);
+			result.print(level, seconds);
+		}
+	}
+
+	private Result run(int threads, final int[] mix, long seconds) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Result> results = new ArrayList<Result>();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			final Result result = new Result();
+			results.add(result);
+			executor.execute(new Runnable() {
+				public void run() {
+					Random random = new Random();
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					while (System.nanoTime() < deadline) {
+						int endpoint = pick(mix, random);
+						long begin = System.nanoTime();
+						try {
+							int status = perform(endpoint, random);
+							if (status >= 400) {
+								result.errors[endpoint]++;
+							}
+						} catch (Exception e) {
+							result.failed(endpoint, e);
+						}
+						result.latencies[endpoint].recordValue(Math.min(
+								TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin), maxLatency));
+					}
+				}
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+		Result total = new Result();
+		for (Result result : results) {
+			total.add(result);
+		}
+		return total;
+	}
+
+	private int perform(int endpoint, Random random) throws Exception {
+		RequestBuilder request;
+		switch (endpoint) {
+		case 0:
+			request = get("/loanrequests/list").with(userDeatilsService("fozzie"));
+			break;
+		case 1:
+			request = get("/loanrequests/show/" + anyLoan(random)).with(userDeatilsService("fozzie"));
+			break;
+		case 2:
+			request = post("/loanrequests/create").param("id", String.valueOf(nextId.incrementAndGet()))
+					.param("customerName", "customer").param("amount", "26")
+					.with(userDeatilsService("fozzie"));
+			break;
+		case 3:
+			request = post("/loanrequests/update").param("id", String.valueOf(anyLoan(random)))
+					.param("customerName", "customer").param("amount", "27")
+					.with(userDeatilsService("fozzie"));
+			break;
+		default:
+			request = get("/loanrequestsapproval/approve/" + recentLoan(random))
+					.with(userDeatilsService("kermit"));
+		}
+		return mockMvc.perform(request).andReturn().getResponse().getStatus();
+	}
+
+	private int anyLoan(Random random) {
+		return firstId + random.nextInt(Math.max(nextId.get() - firstId + 1, 1));
+	}
+
+	private int recentLoan(Random random) {
+		return Math.max(nextId.get() - random.nextInt(approvalWindow), firstId);
+	}
+
+	private static int pick(int[] mix, Random random) {
+		int r = random.nextInt(mix[mix.length - 1]);
+		int endpoint = 0;
+		while (r >= mix[endpoint]) {
+			endpoint++;
+		}
+		return endpoint;
+	}
+
+	/** The cumulative weights of the endpoints, in {@link #endpoints} order. */
+	private static int[] parseMix(String value) {
+		Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+		for (String part : value.split(",")) {
+			String[] weight = part.trim().split(":");
+			weights.put(weight[0], Integer.valueOf(weight[1]));
+		}
+		int[] mix = new int[endpoints.length];
+		int sum = 0;
+		for (int i = 0; i < endpoints.length; i++) {
+			Integer weight = weights.get(endpoints[i]);
+			sum += weight == null ? 0 : weight.intValue();
+			mix[i] = sum;
+		}
+		if (sum == 0) {
+			throw new IllegalArgumentException("load.mix has no weight: " + value);
+		}
+		return mix;
+	}
+
+	private static int[] parseInts(String value) {
+		String[] parts = value.split(",");
+		int[] ints = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			ints[i] = Integer.parseInt(parts[i].trim());
+		}
+		return ints;
+	}
+
+	/** What one thread, or the sum of all threads, saw at one level. */
+	private static class Result {
+
+		final Histogram[] latencies = new Histogram[endpoints.length];
+
+		final long[] errors = new long[endpoints.length];
+
+		long doubleClaims;
+
+		long optimisticLockFailures;
+
+		Result() {
+			for (int i = 0; i < endpoints.length; i++) {
+				latencies[i] = new Histogram(maxLatency, 3);
+			}
+		}
+
+		void failed(int endpoint, Throwable failure) {
+			errors[endpoint]++;
+			for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+				if (cause instanceof ActivitiOptimisticLockingException) {
+					optimisticLockFailures++;
+					return;
+				}
+				if (cause.getMessage() != null && cause.getMessage().contains("already claimed")) {
+					doubleClaims++;
+					return;
+				}
+			}
+		}
+
+		void add(Result other) {
+			for (int i = 0; i < endpoints.length; i++) {
+				latencies[i].add(other.latencies[i]);
+				errors[i] += other.errors[i];
+			}
+			doubleClaims += other.doubleClaims;
+			optimisticLockFailures += other.optimisticLockFailures;
+		}
+
+		void print(int users, long seconds) {
+			long requests = 0;
+			for (int i = 0; i < endpoints.length; i++) {
+				Histogram histogram = latencies[i];
+				requests += histogram.getTotalCount();
+				if (histogram.getTotalCount() == 0) {
+					continue;
+				}
+				System.out.println(users + "\t" + endpoints[i] + "\t" + histogram.getTotalCount()
+						+ "\t" + histogram.getTotalCount() / seconds
+						+ "\t" + histogram.getValueAtPercentile(50)
+						+ "\t" + histogram.getValueAtPercentile(99)
+						+ "\t" + histogram.getValueAtPercentile(99.9)
+						+ "\t" + histogram.getMaxValue() + "\t" + errors[i]);
+			}
+			System.out.println(users + "\ttotal\t" + requests + "\t" + requests / seconds
+					+ "\tdouble claims: " + doubleClaims
+					+ "\toptimistic lock failures: " + optimisticLockFailures);
+		}
+	}
+}
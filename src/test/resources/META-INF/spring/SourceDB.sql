@@ -1,9 +1,24 @@
 DROP TABLE "LOANREQUEST" IF EXISTS;
+DROP TABLE "LOANSTATS" IF EXISTS;
 
 CREATE TABLE "LOANREQUEST" (
   "ID" INT NOT NULL PRIMARY KEY,
   "PROCESSID" VARCHAR(45) NULL ,
   "CUSTOMERNAME" VARCHAR(45) NULL ,
-  "AMOUNT" DECIMAL(10,0) NULL
+  "CUSTOMERNAME_KEY" VARCHAR(45) NULL ,
+  "AMOUNT" DECIMAL(10,0) NULL ,
+  "STATUS" VARCHAR(20) NULL
+);
+
+CREATE INDEX "LOANREQUEST_PROCESSID" ON "LOANREQUEST" ("PROCESSID");
+
+CREATE INDEX "LOANREQUEST_CUSTOMERNAME_KEY" ON "LOANREQUEST" ("CUSTOMERNAME_KEY", "ID");
+
+CREATE TABLE "LOANSTATS" (
+  "STATUS" VARCHAR(20) NOT NULL ,
+  "STRIPE" INT NOT NULL ,
+  "LOANS" BIGINT NOT NULL ,
+  "AMOUNT" DECIMAL(20,0) NOT NULL ,
+  PRIMARY KEY ("STATUS", "STRIPE")
 );
 